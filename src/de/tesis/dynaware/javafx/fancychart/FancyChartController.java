@@ -7,22 +7,32 @@
  */
 package de.tesis.dynaware.javafx.fancychart;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
-import javafx.scene.chart.LineChart;
+import javafx.scene.Scene;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.chart.XYChart.Data;
 import javafx.scene.chart.XYChart.Series;
+import javafx.scene.control.Button;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Label;
 import javafx.scene.input.MouseEvent;
@@ -31,13 +41,25 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
+import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Popup;
-import de.tesis.dynaware.javafx.fancychart.data.DataItem;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+import de.tesis.dynaware.javafx.fancychart.data.DataItemDao;
+import de.tesis.dynaware.javafx.fancychart.data.DataItemDao.FileFormat;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
 import de.tesis.dynaware.javafx.fancychart.data.DefaultDataSet1;
 import de.tesis.dynaware.javafx.fancychart.data.DefaultDataSet2;
 import de.tesis.dynaware.javafx.fancychart.data.DefaultDataSet3;
+import de.tesis.dynaware.javafx.fancychart.data.SeriesMetadata;
+import de.tesis.dynaware.javafx.fancychart.data.SeriesPyramid;
+import de.tesis.dynaware.javafx.fancychart.data.StreamingSeries;
 import de.tesis.dynaware.javafx.fancychart.events.DataItemImportEvent;
 import de.tesis.dynaware.javafx.fancychart.events.DataItemSelectionEvent;
+import de.tesis.dynaware.javafx.fancychart.render.DataPointHit;
+import de.tesis.dynaware.javafx.fancychart.render.FancyLineChart;
+import de.tesis.dynaware.javafx.fancychart.render.SeriesPipeline;
 import de.tesis.dynaware.javafx.fancychart.zoom.Zoom;
 
 /**
@@ -65,6 +87,8 @@ public class FancyChartController {
 
 	private static final int DATA_POINT_POPUP_WIDTH = 30;
 	private static final int DATA_POINT_POPUP_HEIGHT = 15;
+	private static final int DATA_POINT_POPUP_X_OFFSET = 15;
+	private static final int DATA_POINT_POPUP_Y_OFFSET = -5;
 	private static final int RGB_MAX = 255;
 
 	private static final double REGULAR_SCALE = 0.5;
@@ -75,7 +99,7 @@ public class FancyChartController {
 				(int) (color.getBlue() * RGB_MAX));
 	}
 
-	private final List<ObservableList<DataItem>> ALL_DATA_SETS = new ArrayList<>();
+	private final List<DataSeries> ALL_DATA_SETS = new ArrayList<>();
 
 	@FXML
 	private StackPane rootPane;
@@ -95,11 +119,29 @@ public class FancyChartController {
 	private ColorPicker colorPicker2;
 	@FXML
 	private TabbedTablesController tabPaneContainerController;
+	@FXML
+	private Button openWorkspaceButton;
+	@FXML
+	private Button saveWorkspaceButton;
 
 	private final ObservableList<Color> seriesColors = FXCollections.observableArrayList();
 	private final List<ColorPicker> colorPickers = new ArrayList<>();
+	private final List<SeriesPipeline> seriesPipelines = new ArrayList<>();
 
-	private LineChart<Number, Number> chart;
+	/**
+	 * The tasks that load the default data sets or the data sets of the open workspace. A task is started when its
+	 * data set is first shown, and an entry is {@code null} if the data set does not wait to be loaded.
+	 */
+	private final List<Task<DataSeries>> dataSetLoads = new ArrayList<>();
+	// the stored bounds of the data sets that wait to be loaded from a workspace, null for other data sets
+	private final List<SeriesMetadata> dataSetMetadata = new ArrayList<>();
+	private String pendingWorkspaceSavePath;
+	// the default data sets are loaded once, unless a workspace is opened before
+	private boolean defaultDataSetsRequested;
+	// the stream that feeds each data set, null for data sets that are not streamed
+	private final List<StreamingSeries> dataSetStreams = new ArrayList<>();
+
+	private FancyLineChart chart;
 	private StackPane chartPane;
 	private NumberAxis xAxis;
 	private NumberAxis yAxis;
@@ -109,11 +151,112 @@ public class FancyChartController {
 		initTables();
 		setupColors();
 		setupColorPickers();
-		loadDefaultDataSets();
 		createChart();
+		setDataPointColors();
 		setDataPointPopup();
 		initTabPane();
 		addZoom();
+		addDataSetLoadTriggers();
+		addDefaultDataSetLoadTrigger();
+	}
+
+	/**
+	 * Opens a workspace file that was written by {@link #saveWorkspace(String)}. Only the metadata of the data sets is
+	 * read right away. The points of a data set are loaded in the background when its tab is selected, or when its
+	 * stored x range overlaps the x range shown in the chart. Data sets beyond the number of tables are not opened.
+	 * 
+	 * @param filePath
+	 *            the path of the workspace file
+	 */
+	public void openWorkspace(final String filePath) {
+		final List<SeriesMetadata> metadata = DataItemDao.importWorkspaceMetadata(filePath);
+		defaultDataSetsRequested = true;
+		cancelDataSetLoads();
+		clearChartSelections();
+		if (metadata.size() > ALL_DATA_SETS.size()) {
+			System.err.println("The workspace contains " + metadata.size() + " data sets, only the first "
+					+ ALL_DATA_SETS.size() + " are opened");
+		}
+
+		for (int i = 0; i < ALL_DATA_SETS.size(); i++) {
+			stopStreaming(i);
+			ALL_DATA_SETS.get(i).clear();
+			if (i < metadata.size()) {
+				final SeriesMetadata seriesMetadata = metadata.get(i);
+				chart.getData().get(i).setName(seriesMetadata.getName());
+				tabPaneContainerController.setTabText(i, seriesMetadata.getName());
+				seriesColors.set(i, Color.web(seriesMetadata.getColor()));
+				colorPickers.get(i).setValue(seriesColors.get(i));
+				if (seriesMetadata.getSize() > 0) {
+					addDataSetLoad(i, DataItemDao.createWorkspaceImportTask(filePath, i, seriesMetadata.getName()));
+					dataSetMetadata.set(i, seriesMetadata);
+				}
+			}
+		}
+		for (int i = 0; i < ALL_DATA_SETS.size(); i++) {
+			loadIfShown(i);
+		}
+	}
+
+	/**
+	 * Saves all data sets with their names and colours to a workspace file in the background. Data sets that have not
+	 * been loaded yet are loaded first.
+	 * 
+	 * @param filePath
+	 *            the path of the workspace file
+	 */
+	public void saveWorkspace(final String filePath) {
+		pendingWorkspaceSavePath = filePath;
+		for (int i = 0; i < dataSetLoads.size(); i++) {
+			startDataSetLoad(i);
+		}
+		saveWorkspaceIfLoaded();
+	}
+
+	/**
+	 * Switches between drawing the series onto a canvas and rendering them with one node per data point. Canvas
+	 * rendering keeps the chart responsive for data sets with many points.
+	 * 
+	 * @param canvasRendering
+	 *            {@code true} if the series should be drawn onto a canvas
+	 */
+	public void setCanvasRendering(final boolean canvasRendering) {
+		clearChartSelections();
+		chart.setCanvasRendering(canvasRendering);
+	}
+
+	/**
+	 * Turns a data set into a sliding window over a stream of points. Points appended to the returned series, from any
+	 * thread, show up in the table and the chart once per frame. A stream that already feeds the data set is stopped,
+	 * and so is the new one once the data set is imported or loaded.
+	 * 
+	 * @param dataSeriesIndex
+	 *            the index of the data set
+	 * @param windowSize
+	 *            the maximum number of points the data set keeps
+	 * @return the started streaming series
+	 */
+	public StreamingSeries startStreaming(final int dataSeriesIndex, final int windowSize) {
+		cancelDataSetLoad(dataSeriesIndex);
+		stopStreaming(dataSeriesIndex);
+		final StreamingSeries streamingSeries = new StreamingSeries(ALL_DATA_SETS.get(dataSeriesIndex), windowSize);
+		dataSetStreams.set(dataSeriesIndex, streamingSeries);
+		streamingSeries.start();
+		return streamingSeries;
+	}
+
+	/**
+	 * Stops the stream that feeds a data set, if there is one. The points applied so far stay in the data set.
+	 * 
+	 * @param dataSeriesIndex
+	 *            the index of the data set
+	 */
+	public void stopStreaming(final int dataSeriesIndex) {
+		final StreamingSeries streamingSeries = dataSetStreams.get(dataSeriesIndex);
+		if (streamingSeries != null) {
+			streamingSeries.stop();
+			dataSetStreams.set(dataSeriesIndex, null);
+		}
 	}
 
 	/**
@@ -132,6 +275,254 @@ public class FancyChartController {
 		}
 	}
 
+	/**
+	 * Loads the default data sets once the window of the chart is shown for the first time, so that showing it does
+	 * not wait for any data.
+	 */
+	private void addDefaultDataSetLoadTrigger() {
+		final EventHandler<WindowEvent> shownHandler = new EventHandler<WindowEvent>() {
+
+			@Override
+			public void handle(final WindowEvent event) {
+				loadDefaultDataSets();
+			}
+		};
+		final ChangeListener<Window> windowListener = new ChangeListener<Window>() {
+
+			@Override
+			public void changed(final ObservableValue<? extends Window> observable, final Window oldWindow,
+					final Window newWindow) {
+				if (oldWindow != null) {
+					oldWindow.removeEventHandler(WindowEvent.WINDOW_SHOWN, shownHandler);
+				}
+				if (newWindow != null && newWindow.isShowing()) {
+					loadDefaultDataSets();
+				} else if (newWindow != null) {
+					newWindow.addEventHandler(WindowEvent.WINDOW_SHOWN, shownHandler);
+				}
+			}
+		};
+		rootPane.sceneProperty().addListener(new ChangeListener<Scene>() {
+
+			@Override
+			public void changed(final ObservableValue<? extends Scene> observable, final Scene oldScene,
+					final Scene newScene) {
+				if (oldScene != null) {
+					oldScene.windowProperty().removeListener(windowListener);
+					windowListener.changed(oldScene.windowProperty(), oldScene.getWindow(), null);
+				}
+				if (newScene != null) {
+					newScene.windowProperty().addListener(windowListener);
+					windowListener.changed(newScene.windowProperty(), null, newScene.getWindow());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Loads the default data sets from the class path in the background, into the data sets that are empty and do not
+	 * wait for another load or stream. The tables show placeholders until the data sets arrive.
+	 */
+	private void loadDefaultDataSets() {
+		if (defaultDataSetsRequested) {
+			return;
+		}
+		defaultDataSetsRequested = true;
+
+		final List<Task<DataSeries>> tasks = new ArrayList<>();
+		tasks.add(DefaultDataSet1.createLoadTask());
+		tasks.add(DefaultDataSet2.createLoadTask());
+		tasks.add(DefaultDataSet3.createLoadTask());
+		for (int i = 0; i < tasks.size(); i++) {
+			if (ALL_DATA_SETS.get(i).isEmpty() && dataSetLoads.get(i) == null && dataSetStreams.get(i) == null) {
+				addDataSetLoad(i, tasks.get(i));
+				loadIfShown(i);
+			}
+		}
+	}
+
+	/**
+	 * Loads the data sets that wait to be loaded when their tab is selected or the x range of the chart changes.
+	 */
+	private void addDataSetLoadTriggers() {
+		final ReadOnlyIntegerProperty selectedTabIndex = tabPaneContainerController.selectedTabIndexProperty();
+		selectedTabIndex.addListener(new InvalidationListener() {
+
+			@Override
+			public void invalidated(final Observable observable) {
+				loadIfShown(selectedTabIndex.get());
+			}
+		});
+
+		final InvalidationListener rangeListener = new InvalidationListener() {
+
+			@Override
+			public void invalidated(final Observable observable) {
+				for (int i = 0; i < dataSetLoads.size(); i++) {
+					loadIfShown(i);
+				}
+			}
+		};
+		xAxis.lowerBoundProperty().addListener(rangeListener);
+		xAxis.upperBoundProperty().addListener(rangeListener);
+		xAxis.autoRangingProperty().addListener(rangeListener);
+	}
+
+	/**
+	 * Lets a data set wait for the given task to load it. The task is started by {@link #loadIfShown(int)}.
+	 */
+	private void addDataSetLoad(final int index, final Task<DataSeries> task) {
+		cancelDataSetLoad(index);
+		stopStreaming(index);
+		dataSetLoads.set(index, task);
+		tabPaneContainerController.setLoading(index, true);
+		task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+
+			@Override
+			public void handle(final WorkerStateEvent event) {
+				if (dataSetLoads.get(index) == task) {
+					clearChartSelections();
+					ALL_DATA_SETS.get(index).takeOver(task.getValue());
+					finishDataSetLoad(index);
+				}
+			}
+		});
+		task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+
+			@Override
+			public void handle(final WorkerStateEvent event) {
+				System.err.println(task.getException().getMessage());
+				if (dataSetLoads.get(index) == task) {
+					finishDataSetLoad(index);
+				}
+			}
+		});
+	}
+
+	private void loadIfShown(final int index) {
+		if (index < 0 || index >= dataSetLoads.size() || dataSetLoads.get(index) == null) {
+			return;
+		}
+		if (tabPaneContainerController.selectedTabIndexProperty().get() == index || isInShownRange(index)) {
+			startDataSetLoad(index);
+		}
+	}
+
+	/**
+	 * Checks whether a data set that waits to be loaded would be seen in the chart. A chart that is auto-ranging shows
+	 * all data sets, otherwise the stored x range of a data set has to overlap the x range of the chart. Data sets
+	 * without metadata are always seen.
+	 */
+	private boolean isInShownRange(final int index) {
+		final SeriesMetadata metadata = dataSetMetadata.get(index);
+		if (metadata == null || xAxis.isAutoRanging()) {
+			return true;
+		}
+		return !(metadata.getMaxX() < xAxis.getLowerBound() || metadata.getMinX() > xAxis.getUpperBound());
+	}
+
+	private void startDataSetLoad(final int index) {
+		final Task<DataSeries> task = dataSetLoads.get(index);
+		if (task != null && task.getState() == Worker.State.READY) {
+			final Thread thread = new Thread(task, "Load of data set " + index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void finishDataSetLoad(final int index) {
+		dataSetLoads.set(index, null);
+		dataSetMetadata.set(index, null);
+		tabPaneContainerController.setLoading(index, false);
+		saveWorkspaceIfLoaded();
+	}
+
+	/**
+	 * Cancels the loads of all data sets, e.g. because a workspace is opened instead.
+	 */
+	private void cancelDataSetLoads() {
+		pendingWorkspaceSavePath = null;
+		for (int i = 0; i < dataSetLoads.size(); i++) {
+			cancelDataSetLoad(i);
+		}
+	}
+
+	private void cancelDataSetLoad(final int index) {
+		final Task<DataSeries> task = dataSetLoads.get(index);
+		if (task != null) {
+			dataSetLoads.set(index, null);
+			dataSetMetadata.set(index, null);
+			tabPaneContainerController.setLoading(index, false);
+			task.cancel();
+			saveWorkspaceIfLoaded();
+		}
+	}
+
+	/**
+	 * Starts a requested save once no data set waits to be loaded anymore.
+	 */
+	private void saveWorkspaceIfLoaded() {
+		if (pendingWorkspaceSavePath == null) {
+			return;
+		}
+		for (final Task<DataSeries> task : dataSetLoads) {
+			if (task != null) {
+				return;
+			}
+		}
+
+		final List<String> names = new ArrayList<>();
+		final List<String> colors = new ArrayList<>();
+		for (int i = 0; i < ALL_DATA_SETS.size(); i++) {
+			names.add(chart.getData().get(i).getName());
+			colors.add(toRGBCode(seriesColors.get(i)));
+		}
+		final Task<Void> task = DataItemDao.createWorkspaceExportTask(ALL_DATA_SETS, names, colors,
+				pendingWorkspaceSavePath);
+		pendingWorkspaceSavePath = null;
+		task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+
+			@Override
+			public void handle(final WorkerStateEvent event) {
+				System.err.println(task.getException().getMessage());
+			}
+		});
+		final Thread thread = new Thread(task, "Workspace save");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@FXML
+	private void openWorkspace(final ActionEvent event) {
+		final File file = createWorkspaceFileChooser("Open a workspace").showOpenDialog(
+				rootPane.getScene().getWindow());
+		if (file != null) {
+			try {
+				openWorkspace(file.getAbsolutePath());
+			} catch (final RuntimeException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+
+	@FXML
+	private void saveWorkspace(final ActionEvent event) {
+		final FileChooser fileChooser = createWorkspaceFileChooser("Save the workspace");
+		fileChooser.setInitialFileName("workspace." + FileFormat.HDF5.getFileExtension());
+		final File file = fileChooser.showSaveDialog(rootPane.getScene().getWindow());
+		if (file != null) {
+			saveWorkspace(file.getAbsolutePath());
+		}
+	}
+
+	private static FileChooser createWorkspaceFileChooser(final String title) {
+		final FileChooser fileChooser = new FileChooser();
+		fileChooser.setTitle(title);
+		fileChooser.getExtensionFilters().add(
+				new ExtensionFilter("Workspace files", "*." + FileFormat.HDF5.getFileExtension()));
+		return fileChooser;
+	}
+
 	private void setupColorPickers() {
 		colorPickers.add(colorPicker0);
 		colorPickers.add(colorPicker1);
@@ -148,31 +539,23 @@ public class FancyChartController {
 	 */
 	private void initAllDataSet() {
 		for (int i = 0; i < NUMBER_OF_DATA_SETS; i++) {
-			final ObservableList<DataItem> dataItems = FXCollections.observableArrayList();
-			ALL_DATA_SETS.add(dataItems);
+			ALL_DATA_SETS.add(new DataSeries());
+			dataSetLoads.add(null);
+			dataSetMetadata.add(null);
+			dataSetStreams.add(null);
 		}
 	}
 
 	/**
-	 * Adds a listener that updates the chart items when the a data set changes
+	 * Creates the level-of-detail indices of the data sets and the pipelines that feed them into the chart series.
 	 */
-	private void addDataItemChangeListener() {
-
+	private void createSeriesPipelines() {
 		for (int i = 0; i < ALL_DATA_SETS.size(); i++) {
-			ObservableList<DataItem> dataItems = ALL_DATA_SETS.get(i);
-			final int index = i;
-			dataItems.addListener(new ListChangeListener<DataItem>() {
-				@Override
-				public void onChanged(Change<? extends DataItem> change) {
-					if (change.next()) {
-						setDataItems(dataItems, index);
-					}
-				}
-			});
-			// set initial values
-			setDataItems(dataItems, index);
+			final SeriesPyramid pyramid = new SeriesPyramid(ALL_DATA_SETS.get(i));
+			final SeriesPipeline pipeline = new SeriesPipeline(pyramid, chart.getData().get(i), xAxis);
+			seriesPipelines.add(pipeline);
+			chart.addSeriesPipeline(pipeline);
 		}
-
 	}
 
 	private void setupColors() {
@@ -186,31 +569,8 @@ public class FancyChartController {
 			public void onChanged(final Change<? extends Color> change) {
 				change.next();
 				if (change.wasAdded()) {
-
-					int index = change.getFrom();
-					final List<? extends Color> addedSubList = change.getAddedSubList();
-
-					for (final Color color : addedSubList) {
-
-						final Series<Number, Number> series = chart.getData().get(index);
-						final String newWebColor = toRGBCode(color);
-						final String strokeStyle = "-fx-stroke: " + newWebColor + ";";
-						final String backgroundColorStyle = "-fx-background-color: " + newWebColor + ", white;";
-
-						// set line color
-						series.getNode().setStyle(strokeStyle);
-
-						// set data point color
-						for (final Data<Number, Number> data : series.getData()) {
-							data.getNode().setStyle(backgroundColorStyle);
-						}
-
-						// set legend item color
-						final Set<Node> nodes = chart.lookupAll(".chart-legend-item-symbol.default-color" + index);
-						for (final Node n : nodes) {
-							n.setStyle(backgroundColorStyle);
-						}
-						index++;
+					for (int index = change.getFrom(); index < change.getTo(); index++) {
+						applySeriesColor(index);
 					}
 				}
 			}
@@ -218,6 +578,43 @@ public class FancyChartController {
 
 	}
 
+	/**
+	 * Applies the selected colour of a series to its line, its data points and its legend item.
+	 * 
+	 * @param index
+	 *            the index of the series
+	 */
+	private void applySeriesColor(final int index) {
+		final Series<Number, Number> series = chart.getData().get(index);
+		final String newWebColor = toRGBCode(seriesColors.get(index));
+		final String strokeStyle = "-fx-stroke: " + newWebColor + ";";
+
+		// set line color
+		series.getNode().setStyle(strokeStyle);
+		chart.setSeriesColor(index, seriesColors.get(index));
+
+		// set data point color
+		for (final Data<Number, Number> data : series.getData()) {
+			applyDataPointColor(index, data);
+		}
+
+		// set legend item color
+		final Set<Node> nodes = chart.lookupAll(".chart-legend-item-symbol.default-color" + index);
+		for (final Node n : nodes) {
+			n.setStyle(createBackgroundColorStyle(index));
+		}
+	}
+
+	private void applyDataPointColor(final int index, final Data<Number, Number> data) {
+		if (data.getNode() != null) {
+			data.getNode().setStyle(createBackgroundColorStyle(index));
+		}
+	}
+
+	private String createBackgroundColorStyle(final int index) {
+		return "-fx-background-color: " + toRGBCode(seriesColors.get(index)) + ", white;";
+	}
+
 	@FXML
 	private void setColor(final ActionEvent event) {
 
@@ -233,39 +630,11 @@ public class FancyChartController {
 
 	}
 
-	private void loadDefaultDataSets() {
-		ALL_DATA_SETS.get(0).setAll(DefaultDataSet1.getDataItems());
-		ALL_DATA_SETS.get(1).setAll(DefaultDataSet2.getDataItems());
-		ALL_DATA_SETS.get(2).setAll(DefaultDataSet3.getDataItems());
-	}
-
-	private void setDataItems(List<DataItem> items, int index) {
-		Series<Number, Number> series = chart.getData().get(index);
-
-		clearSeries(series);
-
-		for (DataItem dataItem : items) {
-			final Data<Number, Number> data = new XYChart.Data<Number, Number>();
-			data.YValueProperty().bind(dataItem.yProperty());
-			data.XValueProperty().bind(dataItem.xProperty());
-			series.getData().add(data);
-		}
-
-	}
-
-	private void clearSeries(Series<Number, Number> series) {
-		for (Data<Number, Number> data : series.getData()) {
-			data.XValueProperty().unbind();
-			data.YValueProperty().unbind();
-		}
-		series.getData().clear();
-	}
-
 	private void createChart() {
 
 		xAxis = new NumberAxis();// lowerBoundX, upperBoundX, CHART_AXIS_TICK_UNIT);
 		yAxis = new NumberAxis();// lowerBoundY, upperBoundY, CHART_AXIS_TICK_UNIT);
-		chart = new LineChart<>(xAxis, yAxis);
+		chart = new FancyLineChart(xAxis, yAxis);
 		xAxis.setLabel("X");
 		yAxis.setLabel("Y");
 
@@ -277,7 +646,10 @@ public class FancyChartController {
 		VBox.setVgrow(chartPane, Priority.ALWAYS);
 
 		chartBox.getChildren().add(0, chartPane);
-		addDataItemChangeListener();
+		createSeriesPipelines();
+		for (int i = 0; i < seriesColors.size(); i++) {
+			chart.setSeriesColor(i, seriesColors.get(i));
+		}
 		addSelectionListener();
 		addDataImportListener();
 	}
@@ -288,9 +660,10 @@ public class FancyChartController {
 			@Override
 			public void handle(DataItemImportEvent event) {
 				int index = event.getDataSeriesIndex();
-				List<DataItem> importedDataItems = event.getImportedDataItems();
-				ALL_DATA_SETS.get(index).setAll(importedDataItems);
-				setDataItems(importedDataItems, index);
+				DataSeries importedDataItems = event.getImportedDataItems();
+				cancelDataSetLoad(index);
+				stopStreaming(index);
+				ALL_DATA_SETS.get(index).takeOver(importedDataItems);
 			}
 		});
 
@@ -314,10 +687,16 @@ public class FancyChartController {
 
 	private void setScale(final int dataSeriesIndex, final List<? extends Integer> indices) {
 		clearChartSelections();
+		if (chart.isCanvasRendering()) {
+			chart.setSelection(dataSeriesIndex, indices);
+			return;
+		}
 		final ObservableList<Data<Number, Number>> data = chart.getData().get(dataSeriesIndex).getData();
+		final SeriesPipeline pipeline = seriesPipelines.get(dataSeriesIndex);
 		for (final int i : indices) {
-			if (i < data.size()) {
-				final Node newNode = data.get(i).getNode();
+			final int dataIndex = pipeline.getDataIndex(i);
+			if (dataIndex >= 0) {
+				final Node newNode = data.get(dataIndex).getNode();
 				newNode.setScaleX(SELECTED_SCALE);
 				newNode.setScaleY(SELECTED_SCALE);
 			}
@@ -328,6 +707,7 @@ public class FancyChartController {
 	 * Sets all scales to regular for all data item in the chart.
 	 */
 	private void clearChartSelections() {
+		chart.clearSelection();
 		for (final Series<Number, Number> series : chart.getData()) {
 			for (final Data<Number, Number> dataItem : series.getData()) {
 				final Node newNode = dataItem.getNode();
@@ -337,65 +717,92 @@ public class FancyChartController {
 		}
 	}
 
-	private void setDataPointPopup() {
-		final Popup popup = new Popup();
-		popup.setHeight(DATA_POINT_POPUP_HEIGHT);
-		popup.setWidth(DATA_POINT_POPUP_WIDTH);
-
+	/**
+	 * Colours the data points of all series now and whenever the pipelines hand new points to the chart.
+	 */
+	private void setDataPointColors() {
 		for (int i = 0; i < chart.getData().size(); i++) {
 			final int dataSeriesIndex = i;
 			final XYChart.Series<Number, Number> series = chart.getData().get(i);
 			for (final Data<Number, Number> data : series.getData()) {
-				final Node node = data.getNode();
-				node.addEventHandler(MouseEvent.MOUSE_ENTERED_TARGET, new EventHandler<MouseEvent>() {
-
-					private static final int X_OFFSET = 15;
-					private static final int Y_OFFSET = -5;
-					final Label label = new Label();
-
-					@Override
-					public void handle(final MouseEvent event) {
-
-						final String colorString = toRGBCode(seriesColors.get(dataSeriesIndex));
-						popup.getContent().setAll(label);
-						label.setStyle("-fx-background-color: " + colorString + "; -fx-border-color: " + colorString
-								+ ";");
-						label.setText("x=" + data.getXValue() + ", y=" + data.getYValue());
-						popup.show(data.getNode().getScene().getWindow(), event.getScreenX() + X_OFFSET,
-								event.getScreenY() + Y_OFFSET);
-						event.consume();
-					}
+				applyDataPointColor(dataSeriesIndex, data);
+			}
+			series.getData().addListener(new ListChangeListener<Data<Number, Number>>() {
 
-					public EventHandler<MouseEvent> init() {
-						label.getStyleClass().add("chart-popup-label");
-						return this;
+				@Override
+				public void onChanged(final Change<? extends Data<Number, Number>> change) {
+					while (change.next()) {
+						if (change.wasAdded()) {
+							for (final Data<Number, Number> data : change.getAddedSubList()) {
+								applyDataPointColor(dataSeriesIndex, data);
+							}
+						}
 					}
+				}
+			});
+		}
+	}
 
-				}.init());
+	/**
+	 * Adds the popup and the table selection to the data points of all series. A single set of handlers on the chart
+	 * looks up the point under the mouse, so the points need no handlers of their own, and points that are shown later
+	 * are covered as well.
+	 */
+	private void setDataPointPopup() {
+		final Popup popup = new Popup();
+		popup.setHeight(DATA_POINT_POPUP_HEIGHT);
+		popup.setWidth(DATA_POINT_POPUP_WIDTH);
 
-				node.addEventHandler(MouseEvent.MOUSE_EXITED_TARGET, new EventHandler<MouseEvent>() {
+		final Label label = new Label();
+		label.getStyleClass().add("chart-popup-label");
+		popup.getContent().setAll(label);
 
-					@Override
-					public void handle(final MouseEvent event) {
-						popup.hide();
-						event.consume();
-					}
-				});
+		chart.addEventHandler(MouseEvent.MOUSE_MOVED, new EventHandler<MouseEvent>() {
+
+			@Override
+			public void handle(final MouseEvent event) {
+				final DataPointHit hit = chart.hitTest(event.getSceneX(), event.getSceneY());
+				if (hit == null) {
+					popup.hide();
+					return;
+				}
+				final DataSeries dataSeries = ALL_DATA_SETS.get(hit.getSeriesIndex());
+				showDataPointPopup(popup, label, hit.getSeriesIndex(), dataSeries.getX(hit.getDataItemIndex()),
+						dataSeries.getY(hit.getDataItemIndex()), event);
+			}
+		});
 
-				// this handler selects the corresponding table item when a data
-				// item in the chart was clicked.
-				node.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
+		chart.addEventHandler(MouseEvent.MOUSE_EXITED, new EventHandler<MouseEvent>() {
 
-					@Override
-					public void handle(final MouseEvent event) {
-						final int dataItemIndex = series.getData().indexOf(data);
-						tabPaneContainerController.selectDataItem(dataSeriesIndex, dataItemIndex);
-						event.consume();
-					}
-				});
+			@Override
+			public void handle(final MouseEvent event) {
+				popup.hide();
 			}
-		}
+		});
+
+		// this handler selects the corresponding table item when a data
+		// item in the chart was clicked.
+		chart.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
+
+			@Override
+			public void handle(final MouseEvent event) {
+				final DataPointHit hit = chart.hitTest(event.getSceneX(), event.getSceneY());
+				if (hit != null) {
+					tabPaneContainerController.selectDataItem(hit.getSeriesIndex(), hit.getDataItemIndex());
+					event.consume();
+				}
+			}
+		});
+	}
 
+	private void showDataPointPopup(final Popup popup, final Label label, final int dataSeriesIndex, final Number x,
+			final Number y, final MouseEvent event) {
+		final String colorString = toRGBCode(seriesColors.get(dataSeriesIndex));
+		label.setStyle("-fx-background-color: " + colorString + "; -fx-border-color: " + colorString + ";");
+		label.setText("x=" + x + ", y=" + y);
+		final Node source = (Node) event.getSource();
+		popup.show(source.getScene().getWindow(), event.getScreenX() + DATA_POINT_POPUP_X_OFFSET,
+				event.getScreenY() + DATA_POINT_POPUP_Y_OFFSET);
 	}
 
 	private List<XYChart.Series<Number, Number>> createChartSeries() {
@@ -1,9 +1,14 @@
 package de.tesis.dynaware.javafx.fancychart;
 
 import javafx.collections.FXCollections;
+import javafx.concurrent.Worker;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import de.tesis.dynaware.javafx.fancychart.data.DataItemDao.FileFormat;
@@ -19,6 +24,12 @@ public class ImportExportPanelController {
 	@FXML
 	Button exportButton;
 	@FXML
+	HBox progressContainer;
+	@FXML
+	ProgressBar progressBar;
+	@FXML
+	Button cancelButton;
+	@FXML
 	StackPane rootPane;
 
 	public void initialize() {
@@ -38,4 +49,41 @@ public class ImportExportPanelController {
 		return formatChoiceBox.getValue();
 	}
 
+	/**
+	 * Shows the progress of an import or export instead of the buttons until it is done. The cancel button cancels the
+	 * worker.
+	 * 
+	 * @param worker
+	 *            the running import or export
+	 */
+	public void showProgress(final Worker<?> worker) {
+		progressBar.progressProperty().bind(worker.progressProperty());
+		final Tooltip tooltip = new Tooltip();
+		tooltip.textProperty().bind(worker.messageProperty());
+		progressBar.setTooltip(tooltip);
+		cancelButton.setOnAction(new EventHandler<ActionEvent>() {
+
+			@Override
+			public void handle(ActionEvent event) {
+				worker.cancel();
+			}
+		});
+
+		buttonContainer.setVisible(false);
+		progressContainer.setVisible(true);
+	}
+
+	/**
+	 * Shows the buttons again after an import or export is done.
+	 */
+	public void hideProgress() {
+		progressBar.progressProperty().unbind();
+		progressBar.setProgress(0);
+		progressBar.setTooltip(null);
+		cancelButton.setOnAction(null);
+
+		progressContainer.setVisible(false);
+		buttonContainer.setVisible(true);
+	}
+
 }
@@ -2,15 +2,16 @@ package de.tesis.dynaware.javafx.fancychart;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.List;
 
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
+import javafx.scene.control.Label;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
@@ -25,6 +26,7 @@ import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.util.Callback;
 import de.tesis.dynaware.javafx.fancychart.data.DataItem;
 import de.tesis.dynaware.javafx.fancychart.data.DataItemDao;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
 import de.tesis.dynaware.javafx.fancychart.data.DataItemDao.FileFormat;
 import de.tesis.dynaware.javafx.fancychart.events.DataItemImportEvent;
 import de.tesis.dynaware.javafx.fancychart.events.DataItemSelectionEvent;
@@ -33,6 +35,7 @@ public class TabTableController {
 
 	private static final int TABLE_MIN_WIDTH = 255;
 	private static final int TABLE_COL_MIN_WIDTH = 120;
+	private static final String LOADING_TEXT = "Loading...";
 
 	@FXML
 	StackPane rootPane;
@@ -43,6 +46,7 @@ public class TabTableController {
 	private ImportExportPanelController importExportPanelController;
 
 	private int dataSetIndex = 0;
+	private DataSeries dataSeries;
 
 	public void initialize() {
 		assignImportExportButtonActions();
@@ -54,7 +58,8 @@ public class TabTableController {
 	}
 
 	@SuppressWarnings("unchecked")
-	public void initTable(final ObservableList<DataItem> items) {
+	public void initTable(final DataSeries items) {
+		dataSeries = items;
 
 		final TableColumn<DataItem, Number> xCol = new TableColumn<>("X");
 		xCol.setCellValueFactory(new PropertyValueFactory<DataItem, Number>("x"));
@@ -80,6 +85,10 @@ public class TabTableController {
 		tableView.scrollTo(dataItemIndex - 5);
 	}
 
+	public void setLoading(final boolean loading) {
+		tableView.setPlaceholder(loading ? new Label(LOADING_TEXT) : null);
+	}
+
 	public void clearTableSelection() {
 		tableView.getSelectionModel().clearSelection();
 	}
@@ -101,29 +110,61 @@ public class TabTableController {
 
 			@Override
 			public void handle(ActionEvent event) {
-				exportToFile(tableView.getItems(), importExportPanelController.getSelectedFileFormat());
+				exportToFile(dataSeries, importExportPanelController.getSelectedFileFormat());
 			}
 		});
 	}
 
-	private void importFromFile(int index, FileFormat fileFormat) {
+	private void importFromFile(final int index, FileFormat fileFormat) {
 		FileChooser fileChooser = createFileChooser("Import a " + fileFormat.name() + " file", fileFormat);
 		File file = fileChooser.showOpenDialog(tableView.getScene().getWindow());
 		if (file != null) {
-			List<DataItem> dataItems = DataItemDao.importFromFile(file.getAbsolutePath(), fileFormat);
-			tableView.fireEvent(new DataItemImportEvent(dataItems, index));
+			final Task<DataSeries> task = DataItemDao.createImportTask(file.getAbsolutePath(), fileFormat);
+			task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+
+				@Override
+				public void handle(WorkerStateEvent event) {
+					tableView.fireEvent(new DataItemImportEvent(task.getValue(), index));
+				}
+			});
+			runInBackground(task);
 		}
 	}
 
-	private void exportToFile(List<DataItem> dataItems, FileFormat fileFormat) {
+	private void exportToFile(DataSeries dataItems, FileFormat fileFormat) {
 		FileChooser fileChooser = createFileChooser("Export a " + fileFormat + " file", fileFormat);
 		fileChooser.setInitialFileName("export." + fileFormat.getFileExtension());
 		File file = fileChooser.showSaveDialog(tableView.getScene().getWindow());
 		if (file != null) {
-			DataItemDao.exportToFile(dataItems, file.getAbsolutePath(), fileFormat);
+			runInBackground(DataItemDao.createExportTask(dataItems, file.getAbsolutePath(), fileFormat));
 		}
 	}
 
+	/**
+	 * Runs an import or export on a background thread and shows its progress in the import/export panel until it is
+	 * done. The handlers of the task are called on the JavaFX application thread.
+	 */
+	private void runInBackground(final Task<?> task) {
+		final EventHandler<WorkerStateEvent> doneHandler = new EventHandler<WorkerStateEvent>() {
+
+			@Override
+			public void handle(WorkerStateEvent event) {
+				importExportPanelController.hideProgress();
+				if (task.getException() != null) {
+					System.err.println(task.getException().getMessage());
+				}
+			}
+		};
+		task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, doneHandler);
+		task.addEventHandler(WorkerStateEvent.WORKER_STATE_CANCELLED, doneHandler);
+		task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, doneHandler);
+		importExportPanelController.showProgress(task);
+
+		Thread thread = new Thread(task, "Import/export of data set " + dataSetIndex);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
 	private static FileChooser createFileChooser(String title, FileFormat fileFormat) {
 		FileChooser fileChooser = new FileChooser();
 		fileChooser.setInitialDirectory(File.listRoots()[0]);
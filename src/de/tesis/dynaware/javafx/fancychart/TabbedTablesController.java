@@ -12,11 +12,11 @@ import java.util.List;
 
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
-import javafx.collections.ObservableList;
+import javafx.beans.property.ReadOnlyIntegerProperty;
 import javafx.fxml.FXML;
 import javafx.scene.control.TabPane;
 import javafx.scene.layout.StackPane;
-import de.tesis.dynaware.javafx.fancychart.data.DataItem;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
 
 /**
  * 
@@ -56,10 +56,28 @@ public class TabbedTablesController {
 
 	}
 
-	public void initTable(final int index, final ObservableList<DataItem> items) {
+	public void initTable(final int index, final DataSeries items) {
 		tableControllers.get(index).initTable(items);
 	}
 
+	/**
+	 * @return the index of the tab that is shown
+	 */
+	public ReadOnlyIntegerProperty selectedTabIndexProperty() {
+		return tableTabPane.getSelectionModel().selectedIndexProperty();
+	}
+
+	public void setTabText(final int index, final String text) {
+		tableTabPane.getTabs().get(index).setText(text);
+	}
+
+	/**
+	 * Shows a placeholder in the empty table of a data set while the data set is loaded.
+	 */
+	public void setLoading(final int index, final boolean loading) {
+		tableControllers.get(index).setLoading(loading);
+	}
+
 	public void selectDataItem(final int dataSeriesIndex, final int dataItemIndex) {
 		tableTabPane.getSelectionModel().select(dataSeriesIndex);
 		clearAllTableSelections();
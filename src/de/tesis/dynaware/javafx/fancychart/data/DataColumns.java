@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A growable buffer of x/y points in two primitive columns, which the importers fill before the points become a
+ * {@link DataSeries}.
+ *
+ * <p>
+ * Unlike a {@link DataSeries}, the buffer is not observable and has no items, so it can be filled on any thread and
+ * without allocating per point.
+ * </p>
+ */
+public class DataColumns {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Fewer points are sorted by a single thread, and ranges of at most this many points are sorted by a single task.
+	 */
+	private static final int MIN_PARALLEL_SORT_SIZE = 1 << 17;
+	private static final int PARALLEL_SORT_GRANULARITY = 1 << 15;
+
+	private double[] xValues;
+	private double[] yValues;
+	private int size;
+
+	/**
+	 * Creates a new empty buffer.
+	 */
+	public DataColumns() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new empty buffer that can hold the given number of points without growing.
+	 *
+	 * @param capacity
+	 *            the initial capacity
+	 */
+	public DataColumns(final int capacity) {
+		xValues = new double[Math.max(capacity, 1)];
+		yValues = new double[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * @return the number of points in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            the index of a point
+	 * @return the x value of the point
+	 */
+	public double getX(final int index) {
+		checkIndex(index);
+		return xValues[index];
+	}
+
+	/**
+	 * @param index
+	 *            the index of a point
+	 * @return the y value of the point
+	 */
+	public double getY(final int index) {
+		checkIndex(index);
+		return yValues[index];
+	}
+
+	/**
+	 * Appends a point.
+	 *
+	 * @param x
+	 *            the x value
+	 * @param y
+	 *            the y value
+	 */
+	public void add(final double x, final double y) {
+		if (size == xValues.length) {
+			ensureCapacity(size + 1);
+		}
+		xValues[size] = x;
+		yValues[size] = y;
+		size++;
+	}
+
+	/**
+	 * Appends all points of another buffer.
+	 *
+	 * @param other
+	 *            the buffer whose points are appended
+	 */
+	public void addAll(final DataColumns other) {
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.xValues, 0, xValues, size, other.size);
+		System.arraycopy(other.yValues, 0, yValues, size, other.size);
+		size += other.size;
+	}
+
+	/**
+	 * Removes all points but keeps the capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Sorts the points by their x values. The sort is stable, so points with the same x value keep their order.
+	 * Values are compared like {@link Double#compare(double, double)} does, so missing values come last.
+	 *
+	 * <p>
+	 * Points that are already sorted are recognized in a single pass, and points in strictly descending order are just
+	 * reversed. Other points are merge-sorted in the columns themselves, on all available cores if there are many.
+	 * </p>
+	 */
+	public void sortByX() {
+		int ascending = 0;
+		int descending = 0;
+		for (int i = 1; i < size; i++) {
+			final int comparison = Double.compare(xValues[i - 1], xValues[i]);
+			if (comparison <= 0) {
+				ascending++;
+			}
+			if (comparison > 0) {
+				descending++;
+			}
+		}
+		if (ascending == size - 1 || size == 0) {
+			return;
+		} else if (descending == size - 1) {
+			reverse();
+			return;
+		}
+
+		final double[] xBuffer = new double[size];
+		final double[] yBuffer = new double[size];
+		if (size >= MIN_PARALLEL_SORT_SIZE && ForkJoinPool.getCommonPoolParallelism() > 1) {
+			ForkJoinPool.commonPool().invoke(new SortTask(xValues, yValues, xBuffer, yBuffer, 0, size));
+		} else {
+			mergeSort(xValues, yValues, xBuffer, yBuffer, 0, size);
+		}
+	}
+
+	/**
+	 * Keeps only the last of several points with the same x value.
+	 *
+	 * @see #removeDuplicateX(DuplicatePolicy)
+	 */
+	public void removeDuplicateX() {
+		removeDuplicateX(DuplicatePolicy.KEEP_LAST);
+	}
+
+	/**
+	 * Replaces several points with the same x value by a single point, as the policy says. The points have to be sorted
+	 * by x.
+	 *
+	 * @param policy
+	 *            what to do with points that have the same x value
+	 */
+	public void removeDuplicateX(final DuplicatePolicy policy) {
+		if (policy == DuplicatePolicy.KEEP_ALL) {
+			return;
+		}
+		int kept = 0;
+		int start = 0;
+		while (start < size) {
+			int end = start + 1;
+			while (end < size && Double.compare(xValues[start], xValues[end]) == 0) {
+				end++;
+			}
+			xValues[kept] = xValues[start];
+			yValues[kept] = policy.merge(yValues, start, end);
+			kept++;
+			start = end;
+		}
+		size = kept;
+	}
+
+	/**
+	 * Hands the columns over to a new data set without copying them. The buffer is empty afterwards.
+	 *
+	 * @return a new data set with the points of the buffer
+	 */
+	public DataSeries toDataSeries() {
+		final DataSeries dataSeries = new DataSeries(xValues, yValues, size);
+		xValues = new double[1];
+		yValues = new double[1];
+		size = 0;
+		return dataSeries;
+	}
+
+	private void reverse() {
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			final double x = xValues[i];
+			final double y = yValues[i];
+			xValues[i] = xValues[j];
+			yValues[i] = yValues[j];
+			xValues[j] = x;
+			yValues[j] = y;
+		}
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > xValues.length) {
+			final int newCapacity = Math.max(capacity, xValues.length + (xValues.length >> 1));
+			xValues = Arrays.copyOf(xValues, newCapacity);
+			yValues = Arrays.copyOf(yValues, newCapacity);
+		}
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * Sorts the range of both columns by x, using the buffers for merging.
+	 */
+	private static void mergeSort(final double[] xValues, final double[] yValues, final double[] xBuffer,
+			final double[] yBuffer, final int from, final int to) {
+		if (to - from <= 16) {
+			insertionSort(xValues, yValues, from, to);
+			return;
+		}
+		final int middle = (from + to) >>> 1;
+		mergeSort(xValues, yValues, xBuffer, yBuffer, from, middle);
+		mergeSort(xValues, yValues, xBuffer, yBuffer, middle, to);
+		merge(xValues, yValues, xBuffer, yBuffer, from, middle, to);
+	}
+
+	/**
+	 * Merges the two sorted halves of the range of both columns, using the buffers.
+	 */
+	private static void merge(final double[] xValues, final double[] yValues, final double[] xBuffer,
+			final double[] yBuffer, final int from, final int middle, final int to) {
+		if (Double.compare(xValues[middle - 1], xValues[middle]) <= 0) {
+			return;
+		}
+
+		System.arraycopy(xValues, from, xBuffer, from, to - from);
+		System.arraycopy(yValues, from, yBuffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || left < middle && Double.compare(xBuffer[left], xBuffer[right]) <= 0) {
+				xValues[i] = xBuffer[left];
+				yValues[i] = yBuffer[left++];
+			} else {
+				xValues[i] = xBuffer[right];
+				yValues[i] = yBuffer[right++];
+			}
+		}
+	}
+
+	private static void insertionSort(final double[] xValues, final double[] yValues, final int from, final int to) {
+		for (int i = from + 1; i < to; i++) {
+			final double x = xValues[i];
+			final double y = yValues[i];
+			int j = i - 1;
+			while (j >= from && Double.compare(xValues[j], x) > 0) {
+				xValues[j + 1] = xValues[j];
+				yValues[j + 1] = yValues[j];
+				j--;
+			}
+			xValues[j + 1] = x;
+			yValues[j + 1] = y;
+		}
+	}
+
+	/**
+	 * Sorts a range of both columns by sorting its halves in parallel and merging them.
+	 */
+	private static class SortTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] xValues;
+		private final double[] yValues;
+		private final double[] xBuffer;
+		private final double[] yBuffer;
+		private final int from;
+		private final int to;
+
+		SortTask(final double[] xValues, final double[] yValues, final double[] xBuffer, final double[] yBuffer,
+				final int from, final int to) {
+			this.xValues = xValues;
+			this.yValues = yValues;
+			this.xBuffer = xBuffer;
+			this.yBuffer = yBuffer;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_SORT_GRANULARITY) {
+				mergeSort(xValues, yValues, xBuffer, yBuffer, from, to);
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new SortTask(xValues, yValues, xBuffer, yBuffer, from, middle), new SortTask(xValues, yValues,
+					xBuffer, yBuffer, middle, to));
+			merge(xValues, yValues, xBuffer, yBuffer, from, middle, to);
+		}
+	}
+
+	/**
+	 * What to do with several points that have the same x value.
+	 */
+	public enum DuplicatePolicy {
+
+		/**
+		 * Keeps all points.
+		 */
+		KEEP_ALL,
+
+		/**
+		 * Keeps the first of the points, in the order they were added.
+		 */
+		KEEP_FIRST {
+
+			@Override
+			double merge(final double[] yValues, final int from, final int to) {
+				return yValues[from];
+			}
+		},
+
+		/**
+		 * Keeps the last of the points, in the order they were added, like a map that is filled with the points does.
+		 */
+		KEEP_LAST,
+
+		/**
+		 * Replaces the points by one point with the mean of their y values.
+		 */
+		AVERAGE {
+
+			@Override
+			double merge(final double[] yValues, final int from, final int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					sum += yValues[i];
+				}
+				return sum / (to - from);
+			}
+		};
+
+		/**
+		 * Returns the y value of the point that replaces the points in the given range.
+		 */
+		double merge(final double[] yValues, final int from, final int to) {
+			return yValues[to - 1];
+		}
+	}
+}
@@ -1,7 +1,7 @@
 /*
  * Copyright (C) 2014 TESIS DYNAware GmbH.
  * All rights reserved. Use is subject to license terms.
- * 
+ *
  * This file is licensed under the Eclipse Public License v1.0, which accompanies this
  * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
  */
@@ -9,41 +9,157 @@ package de.tesis.dynaware.javafx.fancychart.data;
 
 import javafx.beans.property.Property;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 
 /**
- * 
+ * A single x/y point. An item either holds its own values or is a view of one point of a {@link DataSeries}. The
+ * properties are only created when they are asked for, e.g. by a table cell that shows or edits the item. Changes made
+ * through a view are written back into its series.
+ *
+ * <p>
+ * A view follows its point while the series slides, and two views of the same point are equal. Once the point is
+ * removed or the series detaches its views, the view reads missing values and ignores changes, see {@link DataSeries}.
+ * Items that hold their own values are only equal to themselves.
+ * </p>
  */
 public class DataItem {
 
-	private final Property<Number> xProperty = new SimpleObjectProperty<Number>(this, "x");
-	private final Property<Number> yProperty = new SimpleObjectProperty<Number>(this, "y");
+	private final DataSeries series;
+	// the position of the point in the series, counted from the first point ever added, and the layout it refers to
+	private final long position;
+	private final int version;
+
+	private double x;
+	private double y;
+
+	private Property<Number> xProperty;
+	private Property<Number> yProperty;
 
 	public DataItem(final Number x, final Number y) {
-		xProperty.setValue(x);
-		yProperty.setValue(y);
+		this(x == null ? Double.NaN : x.doubleValue(), y == null ? Double.NaN : y.doubleValue());
+	}
+
+	DataItem(final double x, final double y) {
+		this.series = null;
+		this.position = -1;
+		this.version = 0;
+		this.x = x;
+		this.y = y;
+	}
+
+	DataItem(final DataSeries series, final long position, final int version) {
+		this.series = series;
+		this.position = position;
+		this.version = version;
 	}
 
 	public Property<Number> xProperty() {
+		if (xProperty == null) {
+			xProperty = new SimpleObjectProperty<Number>(this, "x", readX());
+			xProperty.addListener(new ChangeListener<Number>() {
+				@Override
+				public void changed(final ObservableValue<? extends Number> value, final Number oldValue,
+						final Number newValue) {
+					writeX(newValue);
+				}
+			});
+		}
 		return xProperty;
 	}
 
 	public Property<Number> yProperty() {
+		if (yProperty == null) {
+			yProperty = new SimpleObjectProperty<Number>(this, "y", readY());
+			yProperty.addListener(new ChangeListener<Number>() {
+				@Override
+				public void changed(final ObservableValue<? extends Number> value, final Number oldValue,
+						final Number newValue) {
+					writeY(newValue);
+				}
+			});
+		}
 		return yProperty;
 	}
 
 	public Number getX() {
-		return xProperty.getValue();
+		return xProperty == null ? readX() : xProperty.getValue();
 	}
 
 	public Number getY() {
-		return yProperty.getValue();
+		return yProperty == null ? readY() : yProperty.getValue();
 	}
 
 	public void setX(final Number x) {
-		xProperty.setValue(x);
+		if (xProperty == null) {
+			writeX(x);
+		} else {
+			xProperty.setValue(x);
+		}
 	}
 
 	public void setY(final Number v) {
-		yProperty.setValue(v);
+		if (yProperty == null) {
+			writeY(v);
+		} else {
+			yProperty.setValue(v);
+		}
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (series == null || !(other instanceof DataItem)) {
+			return this == other;
+		}
+		final DataItem item = (DataItem) other;
+		return series == item.series && position == item.position && version == item.version;
+	}
+
+	@Override
+	public int hashCode() {
+		if (series == null) {
+			return super.hashCode();
+		}
+		return 31 * (31 * System.identityHashCode(series) + Long.hashCode(position)) + version;
+	}
+
+	/**
+	 * Returns the current index of the point this item is a view of in the given series, or -1 if it is not a view of
+	 * a point of that series.
+	 */
+	int findIndex(final DataSeries dataSeries) {
+		return series == dataSeries ? series.findIndex(position, version) : -1;
+	}
+
+	private double readX() {
+		if (series == null) {
+			return x;
+		}
+		final int index = series.findIndex(position, version);
+		return index < 0 ? Double.NaN : series.getX(index);
+	}
+
+	private double readY() {
+		if (series == null) {
+			return y;
+		}
+		final int index = series.findIndex(position, version);
+		return index < 0 ? Double.NaN : series.getY(index);
+	}
+
+	private void writeX(final Number value) {
+		if (series == null) {
+			x = value == null ? Double.NaN : value.doubleValue();
+		} else {
+			series.writeX(series.findIndex(position, version), value);
+		}
+	}
+
+	private void writeY(final Number value) {
+		if (series == null) {
+			y = value == null ? Double.NaN : value.doubleValue();
+		} else {
+			series.writeY(series.findIndex(position, version), value);
+		}
 	}
-}
\ No newline at end of file
+}
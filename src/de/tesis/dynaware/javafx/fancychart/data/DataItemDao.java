@@ -1,48 +1,162 @@
 package de.tesis.dynaware.javafx.fancychart.data;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns.DuplicatePolicy;
+import de.tesis.dynaware.javafx.fancychart.data.formats.BinaryDao;
 import de.tesis.dynaware.javafx.fancychart.data.formats.CsvDao;
 import de.tesis.dynaware.javafx.fancychart.data.formats.Hdf5Dao;
 import de.tesis.dynaware.javafx.fancychart.data.formats.XlsDao;
+import de.tesis.dynaware.javafx.fancychart.data.formats.XlsxDao;
 
 public class DataItemDao {
 
-	public static List<DataItem> importFromFile(String filePath, FileFormat fileFormat) {
+	/**
+	 * Keeps the last of several points with the same x value, like the sorted maps of the formats used to do.
+	 */
+	public static final DuplicatePolicy DEFAULT_DUPLICATE_POLICY = DuplicatePolicy.KEEP_LAST;
+
+	private static volatile ImportCache importCache;
+
+	/**
+	 * Sets the cache of imported data sets that is used for the formats that have to be parsed. There is no cache
+	 * unless one is set, e.g. {@link ImportCache#createDefault()}. Its entries are found by the path, the size and
+	 * the modification time of a file, not by its content, see {@link ImportCache}.
+	 * 
+	 * @param cache
+	 *            the cache, or {@code null} to parse every import again
+	 */
+	public static void setImportCache(ImportCache cache) {
+		importCache = cache;
+	}
+
+	public static DataSeries importFromFile(String filePath, FileFormat fileFormat) {
+		return importFromFile(filePath, fileFormat, ProgressMonitor.NONE);
+	}
+
+	public static DataSeries importFromFile(String filePath, FileFormat fileFormat, ProgressMonitor monitor) {
+		return importFromFile(filePath, fileFormat, DEFAULT_DUPLICATE_POLICY, monitor);
+	}
+
+	/**
+	 * Imports a file. The points are sorted by x, and several points with the same x value are treated as the policy
+	 * says. If an import cache is set, a file that has to be parsed is served from it if it has not changed since it
+	 * was last imported the same way.
+	 * 
+	 * @param filePath
+	 *            the path of the file to import
+	 * @param fileFormat
+	 *            the format of the file
+	 * @param duplicatePolicy
+	 *            what to do with several points with the same x value
+	 * @param monitor
+	 *            the monitor that receives the progress
+	 * @return the imported data set
+	 */
+	public static DataSeries importFromFile(String filePath, FileFormat fileFormat, DuplicatePolicy duplicatePolicy,
+			ProgressMonitor monitor) {
+		ImportCache cache = importCache;
+		if (filePath == null || cache == null || !fileFormat.isParsed()) {
+			return readFile(filePath, fileFormat, duplicatePolicy, monitor);
+		}
+
+		String variant = fileFormat.name() + "-" + duplicatePolicy.name();
+		String key = cache.createKey(filePath, variant);
+		DataSeries cachedData = key != null ? cache.get(key) : null;
+		if (cachedData != null) {
+			return cachedData;
+		}
+		DataSeries data = readFile(filePath, fileFormat, duplicatePolicy, monitor);
+		// the file must not have changed while it was read
+		if (key != null && !monitor.isCancelled() && key.equals(cache.createKey(filePath, variant))) {
+			cache.put(key, data);
+		}
+		return data;
+	}
+
+	/**
+	 * Imports a file without looking into the import cache.
+	 */
+	private static DataSeries readFile(String filePath, FileFormat fileFormat, DuplicatePolicy duplicatePolicy,
+			ProgressMonitor monitor) {
 		if (filePath != null) {
 			switch (fileFormat) {
 			case CSV:
-				SortedMap<Number, Number> csvData = CsvDao.importCsv(filePath);
-				return createDataItems(csvData);
+				DataColumns csvData = CsvDao.importCsvParallel(filePath, CsvDao.DEFAULT_DELIMITER, 0, monitor);
+				return createDataSeries(csvData, duplicatePolicy);
 			case XLS:
-				SortedMap<Number, Number> xlsData = XlsDao.importXls(filePath);
-				return createDataItems(xlsData);
+				DataColumns xlsData = XlsDao.importXls(filePath, monitor);
+				return createDataSeries(xlsData, duplicatePolicy);
+			case XLSX:
+				DataColumns xlsxData = XlsxDao.importXlsx(filePath, monitor);
+				return createDataSeries(xlsxData, duplicatePolicy);
 			case HDF5:
-				SortedMap<Number, Number> hdf5Data = Hdf5Dao.importHdf5(filePath);
-				return createDataItems(hdf5Data);
+				DataColumns hdf5Data = Hdf5Dao.importHdf5(filePath, monitor);
+				return createDataSeries(hdf5Data, duplicatePolicy);
+			case BINARY:
+				// a file that needs neither sorting nor the policy is shown straight from the mapped file
+				if (BinaryDao.isSortedByX(filePath, duplicatePolicy != DuplicatePolicy.KEEP_ALL)) {
+					return BinaryDao.mapBinary(filePath);
+				}
+				DataColumns binaryData = BinaryDao.importBinary(filePath, monitor);
+				return createDataSeries(binaryData, duplicatePolicy);
 			default:
 				break;
 			}
 		}
-		return FXCollections.observableArrayList();
+		return new DataSeries();
+	}
+
+	/**
+	 * Imports a data set from a stream, e.g. of a resource on the class path. Only CSV can be read from a stream, the
+	 * other formats need random access to a file. The stream is not closed.
+	 * 
+	 * @param input
+	 *            the stream to read from
+	 * @param fileFormat
+	 *            the format of the stream
+	 * @param monitor
+	 *            the monitor that receives the progress
+	 * @return the imported data set
+	 */
+	public static DataSeries importFromStream(InputStream input, FileFormat fileFormat, ProgressMonitor monitor) {
+		switch (fileFormat) {
+		case CSV:
+			DataColumns csvData = CsvDao.importCsv(input, CsvDao.DEFAULT_DELIMITER, 0, monitor);
+			return createDataSeries(csvData, DEFAULT_DUPLICATE_POLICY);
+		default:
+			throw new IllegalArgumentException("A " + fileFormat.name() + " file cannot be read from a stream");
+		}
+	}
+
+	public static void exportToFile(DataSeries dataItems, String filePath, FileFormat fileFormat) {
+		exportToFile(dataItems, filePath, fileFormat, ProgressMonitor.NONE);
 	}
 
-	public static void exportToFile(List<DataItem> dataItems, String filePath, FileFormat fileFormat) {
-		SortedMap<Number, Number> data = createEntries(dataItems);
+	public static void exportToFile(DataSeries dataItems, String filePath, FileFormat fileFormat,
+			ProgressMonitor monitor) {
 		if (filePath != null) {
 			switch (fileFormat) {
 			case CSV:
-				CsvDao.exportCsv(data, filePath);
+				CsvDao.exportCsv(dataItems, filePath, monitor);
 				break;
 			case XLS:
-				XlsDao.exportXls(data, filePath);
+				XlsDao.exportXls(dataItems, filePath, monitor);
+				break;
+			case XLSX:
+				XlsxDao.exportXlsx(dataItems, filePath, monitor);
 				break;
 			case HDF5:
-				Hdf5Dao.exportHdf5(data, filePath);
+				Hdf5Dao.exportHdf5(dataItems, filePath, monitor);
+				break;
+			case BINARY:
+				BinaryDao.exportBinary(dataItems, filePath, monitor);
 				break;
 			default:
 				break;
@@ -50,38 +164,224 @@ public class DataItemDao {
 		}
 	}
 
-	private static SortedMap<Number, Number> createEntries(List<DataItem> dataItems) {
-		SortedMap<Number, Number> data = new TreeMap<>();
-		for (DataItem item : dataItems) {
-			data.put(item.getX(), item.getY());
-		}
-		return data;
+	/**
+	 * Creates a task that imports a file in the background. The imported data set is the value of the task and is not
+	 * shown anywhere yet, so it can be handed over to the JavaFX application thread when the task has succeeded.
+	 * 
+	 * @param filePath
+	 *            the path of the file to import
+	 * @param fileFormat
+	 *            the format of the file
+	 * @return a task whose progress is the progress of the import
+	 */
+	public static Task<DataSeries> createImportTask(final String filePath, final FileFormat fileFormat) {
+		return createImportTask(filePath, fileFormat, DEFAULT_DUPLICATE_POLICY);
+	}
+
+	/**
+	 * Creates a task that imports a file in the background, like {@link #createImportTask(String, FileFormat)}, and
+	 * treats several points with the same x value as the policy says.
+	 * 
+	 * @param filePath
+	 *            the path of the file to import
+	 * @param fileFormat
+	 *            the format of the file
+	 * @param duplicatePolicy
+	 *            what to do with several points with the same x value
+	 * @return a task whose progress is the progress of the import
+	 */
+	public static Task<DataSeries> createImportTask(final String filePath, final FileFormat fileFormat,
+			final DuplicatePolicy duplicatePolicy) {
+		return new MonitoredTask<DataSeries>() {
+
+			@Override
+			protected DataSeries call() {
+				updateMessage("Importing " + new File(filePath).getName());
+				return importFromFile(filePath, fileFormat, duplicatePolicy, monitor);
+			}
+		};
+	}
+
+	/**
+	 * Creates a task that imports a resource on the class path in the background, like
+	 * {@link #createImportTask(String, FileFormat)} does for a file. Resources are read as streams, so they can be
+	 * imported from a jar file as well.
+	 * 
+	 * @param owner
+	 *            the class that finds the resource
+	 * @param resourceName
+	 *            the name of the resource, relative to the package of the class unless it starts with a slash
+	 * @param fileFormat
+	 *            the format of the resource
+	 * @return a task whose progress is the progress of the import
+	 */
+	public static Task<DataSeries> createResourceImportTask(final Class<?> owner, final String resourceName,
+			final FileFormat fileFormat) {
+		return new MonitoredTask<DataSeries>() {
+
+			@Override
+			protected DataSeries call() throws IOException {
+				updateMessage("Loading " + resourceName);
+				try (InputStream input = owner.getResourceAsStream(resourceName)) {
+					if (input == null) {
+						throw new IOException("Resource not found: " + resourceName);
+					}
+					return importFromStream(input, fileFormat, monitor);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Creates a task that exports a data set in the background. Must be called on the JavaFX application thread, since
+	 * the task exports a {@link DataSeries#snapshot() snapshot} of the data set as it is at the time of the call, which
+	 * costs nothing unless the data set is changed during the export. If the task is cancelled, the previous file is
+	 * kept.
+	 * 
+	 * @param dataItems
+	 *            the data set to export
+	 * @param filePath
+	 *            the path of the file to write
+	 * @param fileFormat
+	 *            the format of the file
+	 * @return a task whose progress is the progress of the export
+	 */
+	public static Task<Void> createExportTask(final DataSeries dataItems, final String filePath,
+			final FileFormat fileFormat) {
+		final DataSeries snapshot = dataItems.snapshot();
+		return new MonitoredTask<Void>() {
+
+			@Override
+			protected Void call() {
+				updateMessage("Exporting " + new File(filePath).getName());
+				exportToFile(snapshot, filePath, fileFormat, monitor);
+				return null;
+			}
+		};
 	}
 
-	private static List<DataItem> createDataItems(SortedMap<Number, Number> data) {
+	/**
+	 * Reads the metadata of the data sets in an HDF5 workspace file, without reading their points.
+	 * 
+	 * @param filePath
+	 *            the path of the workspace file
+	 * @return the metadata of the data sets, in the order of the workspace
+	 */
+	public static List<SeriesMetadata> importWorkspaceMetadata(String filePath) {
+		return Hdf5Dao.importWorkspaceMetadata(filePath);
+	}
 
-		ObservableList<DataItem> items = FXCollections.observableArrayList();
-		for (Number x : data.keySet()) {
-			Number y = data.get(x);
-			DataItem item = new DataItem(x, y);
-			items.add(item);
+	/**
+	 * Creates a task that imports one data set of an HDF5 workspace file in the background, like
+	 * {@link #createImportTask(String, FileFormat)} does for a single file.
+	 * 
+	 * @param filePath
+	 *            the path of the workspace file
+	 * @param seriesIndex
+	 *            the index of the data set in the workspace
+	 * @param name
+	 *            the name of the data set, which is shown in the message of the task
+	 * @return a task whose progress is the progress of the import
+	 */
+	public static Task<DataSeries> createWorkspaceImportTask(final String filePath, final int seriesIndex,
+			final String name) {
+		return new MonitoredTask<DataSeries>() {
+
+			@Override
+			protected DataSeries call() {
+				updateMessage("Loading " + name);
+				DataColumns data = Hdf5Dao.importWorkspaceSeries(filePath, seriesIndex, monitor);
+				return createDataSeries(data, DEFAULT_DUPLICATE_POLICY);
+			}
+		};
+	}
+
+	/**
+	 * Creates a task that exports several data sets to an HDF5 workspace file in the background. Must be called on the
+	 * JavaFX application thread, like {@link #createExportTask(DataSeries, String, FileFormat)}. If the task is
+	 * cancelled, the previous file is kept.
+	 * 
+	 * @param dataSeries
+	 *            the data sets to export
+	 * @param names
+	 *            the names of the data sets
+	 * @param colors
+	 *            the colours of the data sets as web colours
+	 * @param filePath
+	 *            the path of the workspace file
+	 * @return a task whose progress is the progress of the export
+	 */
+	public static Task<Void> createWorkspaceExportTask(final List<DataSeries> dataSeries, final List<String> names,
+			final List<String> colors, final String filePath) {
+		final List<DataSeries> snapshots = new ArrayList<>(dataSeries.size());
+		for (DataSeries dataItems : dataSeries) {
+			snapshots.add(dataItems.snapshot());
 		}
+		return new MonitoredTask<Void>() {
+
+			@Override
+			protected Void call() {
+				updateMessage("Saving " + new File(filePath).getName());
+				List<SeriesMetadata> metadata = new ArrayList<>(snapshots.size());
+				for (int i = 0; i < snapshots.size(); i++) {
+					metadata.add(SeriesMetadata.create(names.get(i), colors.get(i), snapshots.get(i)));
+				}
+				Hdf5Dao.exportWorkspace(metadata, snapshots, filePath, monitor);
+				return null;
+			}
+		};
+	}
 
-		return items;
+	/**
+	 * Sorts the points by x, unless they already are, and applies the policy to several points with the same x.
+	 */
+	private static DataSeries createDataSeries(DataColumns data, DuplicatePolicy duplicatePolicy) {
+		data.sortByX();
+		data.removeDuplicateX(duplicatePolicy);
+		return data.toDataSeries();
+	}
+
+	/**
+	 * A task that passes the progress reported by the DAOs on to its progress property, and whose cancellation stops
+	 * them.
+	 */
+	private abstract static class MonitoredTask<V> extends Task<V> {
+
+		protected final ProgressMonitor monitor = new ProgressMonitor() {
+
+			@Override
+			public void updateProgress(final long workDone, final long totalWork) {
+				MonitoredTask.this.updateProgress(workDone, totalWork);
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return MonitoredTask.this.isCancelled();
+			}
+		};
 	}
 
 	public enum FileFormat {
-		CSV("csv"), XLS("xls"), HDF5("h5");
+		CSV("csv", true), XLS("xls", true), XLSX("xlsx", true), HDF5("h5", false), BINARY("fcs", false);
 
 		private final String extension;
+		private final boolean parsed;
 
-		FileFormat(String extension) {
+		FileFormat(String extension, boolean parsed) {
 			this.extension = extension;
+			this.parsed = parsed;
 		}
 
 		public String getFileExtension() {
 			return extension;
 		}
+
+		/**
+		 * @return {@code true} if the values of the format have to be parsed, so that imports are worth caching
+		 */
+		public boolean isParsed() {
+			return parsed;
+		}
 	}
 
 }
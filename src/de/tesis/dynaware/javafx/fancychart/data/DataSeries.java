@@ -0,0 +1,897 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+import java.nio.DoubleBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import javafx.collections.ModifiableObservableListBase;
+
+/**
+ * A data set of x/y points stored column by column in two primitive arrays.
+ *
+ * <p>
+ * The series is an {@link javafx.collections.ObservableList ObservableList} of {@link DataItem} so that tables and
+ * listeners can work with it like with any other list. The items are flyweight views that are created on demand by
+ * {@link #get(int)} and write their changes straight back into the arrays. Code that only needs the numbers should use
+ * {@link #getX(int)} and {@link #getY(int)}, which neither allocate nor box.
+ * </p>
+ *
+ * <p>
+ * A view stays bound to its point while points are appended or removed from the head, as a streaming window does. Two
+ * views of the same point are equal, so {@link #indexOf(Object)} finds the point of a view that was kept. Any other
+ * insertion or removal and replacing the content detach all views; a detached view reads missing values and ignores
+ * changes.
+ * </p>
+ *
+ * <p>
+ * A series can also be a read-only view of two {@link DoubleBuffer}s, e.g. of a memory-mapped file. Its values are
+ * then read from the buffers on demand. The first modification copies them into arrays.
+ * </p>
+ */
+public class DataSeries extends ModifiableObservableListBase<DataItem> implements RandomAccess {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private static final byte SORT_STATE_UNKNOWN = 0;
+	private static final byte SORT_STATE_SORTED = 1;
+	private static final byte SORT_STATE_UNSORTED = 2;
+
+	private double[] xValues;
+	private double[] yValues;
+
+	// the columns of a series that is a view of buffers, the arrays are not used until the series is modified
+	private DoubleBuffer bufferedXValues;
+	private DoubleBuffer bufferedYValues;
+
+	// the index of the first point in the arrays, points removed from the head only advance it
+	private int start;
+	private int size;
+	// the number of points ever removed from the head, views address their point relative to it
+	private long headOffset;
+	// changed whenever points move in another way than by a removal from the head, which detaches all views
+	private int layoutVersion;
+	private byte sortState = SORT_STATE_UNKNOWN;
+	// the number of snapshots that share the arrays, which are copied before points in them are modified
+	private int snapshotCount;
+
+	/**
+	 * Creates a new empty series.
+	 */
+	public DataSeries() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new empty series that can hold the given number of points without growing.
+	 *
+	 * @param capacity
+	 *            the initial capacity
+	 */
+	public DataSeries(final int capacity) {
+		xValues = new double[Math.max(capacity, 1)];
+		yValues = new double[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Creates a new series that takes over the given arrays. The arrays must not be modified by the caller afterwards.
+	 *
+	 * @param xValues
+	 *            the x values
+	 * @param yValues
+	 *            the y values
+	 * @param size
+	 *            the number of valid entries in both arrays
+	 */
+	public DataSeries(final double[] xValues, final double[] yValues, final int size) {
+		checkColumns(xValues, yValues, size);
+		this.xValues = xValues;
+		this.yValues = yValues;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a new series that is a view of the given buffers, from their positions to the limit of the x values. The
+	 * values are not copied until the series is modified, so the buffers must not be modified by the caller.
+	 *
+	 * @param xValues
+	 *            the x values
+	 * @param yValues
+	 *            the y values, at least as many as x values
+	 * @param sortedByX
+	 *            {@code true} if the x values are known to be in ascending order, so they don't have to be checked
+	 */
+	public DataSeries(final DoubleBuffer xValues, final DoubleBuffer yValues, final boolean sortedByX) {
+		checkColumns(xValues, yValues);
+		bufferedXValues = xValues.slice();
+		bufferedYValues = yValues.slice();
+		size = xValues.remaining();
+		sortState = sortedByX ? SORT_STATE_SORTED : SORT_STATE_UNKNOWN;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a view of the point at the given index. The view is only created by this call and is not cached.
+	 */
+	@Override
+	public DataItem get(final int index) {
+		checkIndex(index);
+		return new DataItem(this, headOffset + index, layoutVersion);
+	}
+
+	/**
+	 * Returns the index of the point an item is a view of. Only views of this series can be found, since other items
+	 * are never equal to them.
+	 */
+	@Override
+	public int indexOf(final Object item) {
+		return item instanceof DataItem ? ((DataItem) item).findIndex(this) : -1;
+	}
+
+	/**
+	 * @see #indexOf(Object)
+	 */
+	@Override
+	public int lastIndexOf(final Object item) {
+		return indexOf(item);
+	}
+
+	@Override
+	public boolean contains(final Object item) {
+		return indexOf(item) >= 0;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the point
+	 * @return the x value of the point
+	 */
+	public double getX(final int index) {
+		checkIndex(index);
+		return bufferedXValues != null ? bufferedXValues.get(index) : xValues[start + index];
+	}
+
+	/**
+	 * @param index
+	 *            the index of the point
+	 * @return the y value of the point
+	 */
+	public double getY(final int index) {
+		checkIndex(index);
+		return bufferedYValues != null ? bufferedYValues.get(index) : yValues[start + index];
+	}
+
+	/**
+	 * Sets the x value of the point at the given index and notifies listeners about the replaced item.
+	 *
+	 * @param index
+	 *            the index of the point
+	 * @param x
+	 *            the new x value
+	 */
+	public void setX(final int index, final double x) {
+		setValues(index, x, getY(index));
+	}
+
+	/**
+	 * Sets the y value of the point at the given index and notifies listeners about the replaced item.
+	 *
+	 * @param index
+	 *            the index of the point
+	 * @param y
+	 *            the new y value
+	 */
+	public void setY(final int index, final double y) {
+		setValues(index, getX(index), y);
+	}
+
+	/**
+	 * Sets both values of the point at the given index and notifies listeners about the replaced item.
+	 *
+	 * @param index
+	 *            the index of the point
+	 * @param x
+	 *            the new x value
+	 * @param y
+	 *            the new y value
+	 */
+	public void setValues(final int index, final double x, final double y) {
+		checkIndex(index);
+		copyBuffers();
+		final DataItem old = new DataItem(xValues[start + index], yValues[start + index]);
+		xValues[start + index] = x;
+		yValues[start + index] = y;
+		updateSortStateAfterSet(index, true);
+		beginChange();
+		nextSet(index, old);
+		endChange();
+	}
+
+	/**
+	 * Appends a point at the end of the series.
+	 *
+	 * @param x
+	 *            the x value
+	 * @param y
+	 *            the y value
+	 */
+	public void add(final double x, final double y) {
+		copyBuffersBeforeAppend();
+		ensureCapacity(size + 1);
+		xValues[start + size] = x;
+		yValues[start + size] = y;
+		size++;
+		updateSortStateAfterSet(size - 1, false);
+		beginChange();
+		nextAdd(size - 1, size);
+		endChange();
+	}
+
+	/**
+	 * Appends points at the end of the series and removes the oldest points, so that the series keeps at most the
+	 * given number of points. Listeners are notified with a single change. This is how a streaming window slides.
+	 *
+	 * @param newXValues
+	 *            the x values to append, which are copied
+	 * @param newYValues
+	 *            the y values to append, which are copied
+	 * @param count
+	 *            the number of points to append
+	 * @param maxSize
+	 *            the maximum number of points the series keeps
+	 */
+	public void appendAndEvict(final double[] newXValues, final double[] newYValues, final int count,
+			final int maxSize) {
+		appendAndEvict(newXValues, newYValues, 0, count, maxSize);
+	}
+
+	/**
+	 * Appends points that are stored in ring buffers and removes the oldest points, so that the series keeps at most the
+	 * given number of points. The points start at the given index of the arrays and continue at the beginning of the
+	 * arrays once their end is reached. Listeners are notified with a single change.
+	 *
+	 * @param newXValues
+	 *            the ring buffer of the x values to append, which are copied
+	 * @param newYValues
+	 *            the ring buffer of the y values to append, which are copied
+	 * @param first
+	 *            the index of the first point to append in the ring buffers
+	 * @param count
+	 *            the number of points to append
+	 * @param maxSize
+	 *            the maximum number of points the series keeps
+	 */
+	public void appendAndEvict(final double[] newXValues, final double[] newYValues, final int first, final int count,
+			final int maxSize) {
+		checkColumns(newXValues, newYValues, count);
+		if (first < 0 || first > 0 && (first >= newXValues.length || first >= newYValues.length)) {
+			throw new IndexOutOfBoundsException("First: " + first + ", Length: " + newXValues.length);
+		}
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Negative maximum size " + maxSize);
+		}
+
+		// new points that would be evicted right away are skipped
+		final int appended = Math.min(count, maxSize);
+		final int evicted = Math.max(size + appended - maxSize, 0);
+		if (appended == 0 && evicted == 0) {
+			return;
+		}
+		copyBuffersBeforeAppend();
+
+		final List<DataItem> removed = new DetachedItems(Arrays.copyOfRange(xValues, start, start + evicted),
+				Arrays.copyOfRange(yValues, start, start + evicted), evicted);
+		start += evicted;
+		headOffset += evicted;
+		size -= evicted;
+		final int keptSize = size;
+		ensureCapacity(keptSize + appended);
+		copyFromRing(newXValues, first + count - appended, xValues, start + keptSize, appended);
+		copyFromRing(newYValues, first + count - appended, yValues, start + keptSize, appended);
+		size = keptSize + appended;
+
+		if (evicted > 0) {
+			updateSortStateAfterRemove();
+		}
+		if (sortState == SORT_STATE_SORTED) {
+			for (int i = start + Math.max(keptSize, 1); i < start + size; i++) {
+				if (!(xValues[i - 1] <= xValues[i])) {
+					sortState = SORT_STATE_UNSORTED;
+					break;
+				}
+			}
+		}
+
+		beginChange();
+		if (evicted > 0) {
+			nextRemove(0, removed);
+		}
+		if (appended > 0) {
+			nextAdd(keptSize, size);
+		}
+		endChange();
+	}
+
+	/**
+	 * Replaces the content of this series with the given arrays, which are taken over without copying. The arrays must
+	 * not be modified by the caller afterwards.
+	 *
+	 * @param newXValues
+	 *            the new x values
+	 * @param newYValues
+	 *            the new y values
+	 * @param newSize
+	 *            the number of valid entries in both arrays
+	 */
+	public void setAll(final double[] newXValues, final double[] newYValues, final int newSize) {
+		checkColumns(newXValues, newYValues, newSize);
+		replaceContent(newXValues, newYValues, null, null, newSize, SORT_STATE_UNKNOWN);
+	}
+
+	/**
+	 * Replaces the content of this series with a view of the given buffers, like
+	 * {@link #DataSeries(DoubleBuffer, DoubleBuffer, boolean)} creates one.
+	 *
+	 * @param newXValues
+	 *            the new x values
+	 * @param newYValues
+	 *            the new y values, at least as many as x values
+	 * @param sortedByX
+	 *            {@code true} if the x values are known to be in ascending order
+	 */
+	public void setAll(final DoubleBuffer newXValues, final DoubleBuffer newYValues, final boolean sortedByX) {
+		checkColumns(newXValues, newYValues);
+		replaceContent(null, null, newXValues.slice(), newYValues.slice(), newXValues.remaining(),
+				sortedByX ? SORT_STATE_SORTED : SORT_STATE_UNKNOWN);
+	}
+
+	/**
+	 * Copies the content of the given series into this one. The buffers of a series that is a view of buffers are
+	 * shared instead.
+	 *
+	 * @param other
+	 *            the series to copy
+	 */
+	public void setAll(final DataSeries other) {
+		if (other.bufferedXValues != null) {
+			replaceContent(null, null, other.bufferedXValues, other.bufferedYValues, other.size, other.sortState);
+		} else {
+			final int otherSize = other.size;
+			final double[] newXValues = new double[Math.max(otherSize, 1)];
+			final double[] newYValues = new double[Math.max(otherSize, 1)];
+			other.copyValues(newXValues, newYValues);
+			setAll(newXValues, newYValues, otherSize);
+		}
+	}
+
+	/**
+	 * Replaces the content of this series with the points of the given series, which is left empty. Unlike
+	 * {@link #setAll(DataSeries)}, the arrays of the other series are taken over instead of copied, so this takes
+	 * constant time, e.g. to show a data set that was just imported in the background. Listeners of this series are
+	 * notified with a single change.
+	 *
+	 * @param other
+	 *            the series whose points are taken over
+	 */
+	public void takeOver(final DataSeries other) {
+		if (other == this) {
+			return;
+		}
+		if (other.bufferedXValues != null || other.start != 0 || other.snapshotCount > 0) {
+			// setAll shares the buffers of a view anyway, arrays with a free head or a snapshot are rare enough to copy
+			setAll(other);
+		} else {
+			replaceContent(other.xValues, other.yValues, null, null, other.size, other.sortState);
+		}
+		if (other.hasListeners()) {
+			other.replaceContent(new double[DEFAULT_CAPACITY], new double[DEFAULT_CAPACITY], null, null, 0,
+					SORT_STATE_SORTED);
+		} else {
+			// reporting every point as removed would cost as much as the copy that is avoided here
+			other.xValues = new double[DEFAULT_CAPACITY];
+			other.yValues = new double[DEFAULT_CAPACITY];
+			other.bufferedXValues = null;
+			other.bufferedYValues = null;
+			other.snapshotCount = 0;
+			other.start = 0;
+			other.size = 0;
+			other.sortState = SORT_STATE_SORTED;
+			other.layoutVersion++;
+		}
+	}
+
+	@Override
+	public boolean setAll(final Collection<? extends DataItem> items) {
+		if (items instanceof DataSeries) {
+			setAll((DataSeries) items);
+		} else {
+			final double[] newXValues = new double[Math.max(items.size(), 1)];
+			final double[] newYValues = new double[Math.max(items.size(), 1)];
+			int i = 0;
+			for (final DataItem item : items) {
+				newXValues[i] = toDouble(item.getX());
+				newYValues[i] = toDouble(item.getY());
+				i++;
+			}
+			setAll(newXValues, newYValues, i);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean addAll(final Collection<? extends DataItem> items) {
+		return addAll(size, items);
+	}
+
+	@Override
+	public boolean addAll(final int index, final Collection<? extends DataItem> items) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		final int count = items.size();
+		if (count == 0) {
+			return false;
+		}
+		// the items may be this series, so they are copied before anything is moved
+		double[] sourceXValues = null;
+		double[] sourceYValues = null;
+		if (items instanceof DataSeries) {
+			sourceXValues = new double[count];
+			sourceYValues = new double[count];
+			((DataSeries) items).copyValues(sourceXValues, sourceYValues);
+		}
+		copyBuffers();
+		ensureCapacity(size + count);
+		System.arraycopy(xValues, start + index, xValues, start + index + count, size - index);
+		System.arraycopy(yValues, start + index, yValues, start + index + count, size - index);
+		if (sourceXValues != null) {
+			System.arraycopy(sourceXValues, 0, xValues, start + index, count);
+			System.arraycopy(sourceYValues, 0, yValues, start + index, count);
+		} else {
+			int i = start + index;
+			for (final DataItem item : items) {
+				xValues[i] = toDouble(item.getX());
+				yValues[i] = toDouble(item.getY());
+				i++;
+			}
+		}
+		size += count;
+		sortState = SORT_STATE_UNKNOWN;
+		if (index < size - count) {
+			layoutVersion++;
+		}
+		beginChange();
+		nextAdd(index, index + count);
+		endChange();
+		return true;
+	}
+
+	@Override
+	protected void removeRange(final int fromIndex, final int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+		}
+		if (fromIndex == toIndex) {
+			return;
+		}
+		final int count = toIndex - fromIndex;
+		copyBuffers();
+		final List<DataItem> removed = new DetachedItems(Arrays.copyOfRange(xValues, start + fromIndex, start
+				+ toIndex), Arrays.copyOfRange(yValues, start + fromIndex, start + toIndex), count);
+		if (fromIndex == 0) {
+			start += count;
+			headOffset += count;
+		} else {
+			System.arraycopy(xValues, start + toIndex, xValues, start + fromIndex, size - toIndex);
+			System.arraycopy(yValues, start + toIndex, yValues, start + fromIndex, size - toIndex);
+			// even without moving any points, the positions of removed points would be taken by later appends
+			layoutVersion++;
+		}
+		size -= count;
+		updateSortStateAfterRemove();
+		beginChange();
+		nextRemove(fromIndex, removed);
+		endChange();
+	}
+
+	/**
+	 * @return {@code true} if this series is a view of buffers whose values have not been copied into arrays yet
+	 */
+	public boolean isBufferView() {
+		return bufferedXValues != null;
+	}
+
+	/**
+	 * Checks whether the x values of this series are in ascending order. The answer is cached and kept up to date for
+	 * single edits and appends, so usually only the first call after a bulk change has to look at all points.
+	 *
+	 * @return {@code true} if every x value is greater than or equal to its predecessor
+	 */
+	public boolean isSortedByX() {
+		if (sortState == SORT_STATE_UNKNOWN) {
+			sortState = SORT_STATE_SORTED;
+			for (int i = 1; i < size; i++) {
+				if (!(getX(i - 1) <= getX(i))) {
+					sortState = SORT_STATE_UNSORTED;
+					break;
+				}
+			}
+		}
+		return sortState == SORT_STATE_SORTED;
+	}
+
+	/**
+	 * Returns the index of the first point whose x value is not less than the given value. The series must be sorted
+	 * by x.
+	 *
+	 * @param x
+	 *            the x value to search for
+	 * @return the index of the first point with an x value {@code >= x}, or {@link #size()} if there is none
+	 */
+	public int lowerBound(final double x) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (getX(middle) < x) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first point whose x value is greater than the given value. The series must be sorted by
+	 * x.
+	 *
+	 * @param x
+	 *            the x value to search for
+	 * @return the index of the first point with an x value {@code > x}, or {@link #size()} if there is none
+	 */
+	public int upperBound(final double x) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (getX(middle) <= x) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Creates an independent copy of this series. Listeners are not copied. The copy of a series that is a view of
+	 * buffers is a view of the same buffers.
+	 *
+	 * @return a new series with the same points
+	 */
+	public DataSeries copy() {
+		if (bufferedXValues != null) {
+			return new DataSeries(bufferedXValues, bufferedYValues, sortState == SORT_STATE_SORTED);
+		}
+		return new DataSeries(Arrays.copyOfRange(xValues, start, start + Math.max(size, 1)), Arrays.copyOfRange(
+				yValues, start, start + Math.max(size, 1)), size);
+	}
+
+	/**
+	 * Creates a read-only view of the current points that may be read on any thread, e.g. to reduce them in the
+	 * background. The view shares the values of this series. The next modification of this series copies them first,
+	 * so the view keeps the points as they are now, unless the view has been released by then. Appending points, also
+	 * while the oldest ones are evicted, doesn't touch the shared values, so it doesn't copy them.
+	 *
+	 * @return a series that is a view of the current points
+	 */
+	public DataSeries snapshot() {
+		if (bufferedXValues != null) {
+			return copy();
+		}
+		snapshotCount++;
+		return new DataSeries(DoubleBuffer.wrap(xValues, start, size), DoubleBuffer.wrap(yValues, start, size),
+				sortState == SORT_STATE_SORTED);
+	}
+
+	/**
+	 * Tells this series that a snapshot is no longer read, so that modifications don't have to copy the values it
+	 * shares. Releasing a snapshot whose values are no longer shared, e.g. because they were copied in the meantime,
+	 * has no effect.
+	 *
+	 * @param snapshot
+	 *            a snapshot of this series that was created by {@link #snapshot()}
+	 */
+	public void releaseSnapshot(final DataSeries snapshot) {
+		if (snapshotCount > 0 && snapshot.bufferedXValues != null && snapshot.bufferedXValues.hasArray()
+				&& snapshot.bufferedXValues.array() == xValues) {
+			snapshotCount--;
+		}
+	}
+
+	@Override
+	protected void doAdd(final int index, final DataItem item) {
+		copyBuffers();
+		ensureCapacity(size + 1);
+		System.arraycopy(xValues, start + index, xValues, start + index + 1, size - index);
+		System.arraycopy(yValues, start + index, yValues, start + index + 1, size - index);
+		xValues[start + index] = toDouble(item.getX());
+		yValues[start + index] = toDouble(item.getY());
+		if (index < size) {
+			layoutVersion++;
+		}
+		size++;
+		updateSortStateAfterSet(index, false);
+	}
+
+	@Override
+	protected DataItem doSet(final int index, final DataItem item) {
+		copyBuffers();
+		final DataItem old = new DataItem(xValues[start + index], yValues[start + index]);
+		xValues[start + index] = toDouble(item.getX());
+		yValues[start + index] = toDouble(item.getY());
+		updateSortStateAfterSet(index, true);
+		return old;
+	}
+
+	@Override
+	protected DataItem doRemove(final int index) {
+		copyBuffers();
+		final DataItem old = new DataItem(xValues[start + index], yValues[start + index]);
+		if (index == 0) {
+			start++;
+			headOffset++;
+		} else {
+			System.arraycopy(xValues, start + index + 1, xValues, start + index, size - index - 1);
+			System.arraycopy(yValues, start + index + 1, yValues, start + index, size - index - 1);
+			layoutVersion++;
+		}
+		size--;
+		updateSortStateAfterRemove();
+		return old;
+	}
+
+	/**
+	 * Returns the current index of the point a {@link DataItem} view was created for.
+	 *
+	 * @param position
+	 *            the position of the point when the view was created, counted from the first point ever added
+	 * @param version
+	 *            the layout version when the view was created
+	 * @return the index of the point, or -1 if the point was removed or the view was detached
+	 */
+	int findIndex(final long position, final int version) {
+		if (version != layoutVersion || position < headOffset || position - headOffset >= size) {
+			return -1;
+		}
+		return (int) (position - headOffset);
+	}
+
+	/**
+	 * Writes a value coming from a {@link DataItem} view. Views may outlive structural changes of the series, so a
+	 * value for an index that is no longer valid is ignored.
+	 */
+	void writeX(final int index, final Number x) {
+		if (index >= 0) {
+			setX(index, toDouble(x));
+		}
+	}
+
+	/**
+	 * @see #writeX(int, Number)
+	 */
+	void writeY(final int index, final Number y) {
+		if (index >= 0) {
+			setY(index, toDouble(y));
+		}
+	}
+
+	/**
+	 * Replaces the content of this series with either the given arrays or the given buffers and notifies listeners.
+	 */
+	private void replaceContent(final double[] newXValues, final double[] newYValues,
+			final DoubleBuffer newBufferedXValues, final DoubleBuffer newBufferedYValues, final int newSize,
+			final byte newSortState) {
+		// the old columns are not touched anymore, so they can serve as the list of removed items
+		final List<DataItem> removed;
+		if (bufferedXValues != null) {
+			removed = new DetachedItems(bufferedXValues, bufferedYValues, 0, size);
+		} else {
+			removed = new DetachedItems(DoubleBuffer.wrap(xValues), DoubleBuffer.wrap(yValues), start, size);
+		}
+		xValues = newXValues;
+		yValues = newYValues;
+		bufferedXValues = newBufferedXValues;
+		bufferedYValues = newBufferedYValues;
+		snapshotCount = 0;
+		start = 0;
+		size = newSize;
+		sortState = newSortState;
+		layoutVersion++;
+
+		beginChange();
+		if (!removed.isEmpty()) {
+			nextRemove(0, removed);
+		}
+		if (newSize > 0) {
+			nextAdd(0, newSize);
+		}
+		endChange();
+	}
+
+	/**
+	 * Copies all points of this series into the beginning of the given arrays.
+	 */
+	private void copyValues(final double[] targetXValues, final double[] targetYValues) {
+		if (bufferedXValues != null) {
+			bufferedXValues.duplicate().get(targetXValues, 0, size);
+			bufferedYValues.duplicate().get(targetYValues, 0, size);
+		} else {
+			System.arraycopy(xValues, start, targetXValues, 0, size);
+			System.arraycopy(yValues, start, targetYValues, 0, size);
+		}
+	}
+
+	/**
+	 * Turns a series that is a view of buffers into a series of arrays, and copies arrays that are shared with a
+	 * snapshot, before the series is modified.
+	 */
+	private void copyBuffers() {
+		if (bufferedXValues != null) {
+			final double[] newXValues = new double[Math.max(size, 1)];
+			final double[] newYValues = new double[Math.max(size, 1)];
+			copyValues(newXValues, newYValues);
+			xValues = newXValues;
+			yValues = newYValues;
+			bufferedXValues = null;
+			bufferedYValues = null;
+		} else if (snapshotCount > 0) {
+			xValues = Arrays.copyOfRange(xValues, start, Math.max(xValues.length, start + 1));
+			yValues = Arrays.copyOfRange(yValues, start, Math.max(yValues.length, start + 1));
+			start = 0;
+			snapshotCount = 0;
+		}
+	}
+
+	/**
+	 * Turns a series that is a view of buffers into a series of arrays before points are appended, possibly evicting
+	 * the oldest ones. Arrays shared with a snapshot are kept, since that doesn't write to the points a snapshot shows.
+	 */
+	private void copyBuffersBeforeAppend() {
+		if (bufferedXValues != null) {
+			copyBuffers();
+		}
+	}
+
+	/**
+	 * Keeps the cached sort state up to date after the point at the given index was replaced or inserted.
+	 */
+	private void updateSortStateAfterSet(final int index, final boolean replaced) {
+		if (sortState == SORT_STATE_SORTED) {
+			final int position = start + index;
+			final boolean afterPrevious = index == 0 || xValues[position - 1] <= xValues[position];
+			final boolean beforeNext = index == size - 1 || xValues[position] <= xValues[position + 1];
+			if (!afterPrevious || !beforeNext) {
+				sortState = SORT_STATE_UNSORTED;
+			}
+		} else if (sortState == SORT_STATE_UNSORTED && replaced) {
+			// a replaced value may have fixed the order, an inserted one can never do that
+			sortState = SORT_STATE_UNKNOWN;
+		}
+	}
+
+	/**
+	 * Removing points keeps a sorted series sorted, but may fix the order of an unsorted one.
+	 */
+	private void updateSortStateAfterRemove() {
+		if (sortState == SORT_STATE_UNSORTED) {
+			sortState = SORT_STATE_UNKNOWN;
+		}
+	}
+
+	/**
+	 * Makes room for the given number of points. Points removed from the head leave free space at the beginning of the
+	 * arrays. It is reclaimed by moving the points down once the arrays are full, as long as that frees at least a
+	 * quarter of the arrays, so a sliding window costs constant amortized time per point. Arrays shared with a
+	 * snapshot are copied instead of moving the points in them.
+	 */
+	private void ensureCapacity(final int capacity) {
+		if (start + capacity <= xValues.length) {
+			return;
+		}
+		final boolean compact = capacity <= xValues.length - (xValues.length >> 2);
+		if (compact && snapshotCount == 0) {
+			System.arraycopy(xValues, start, xValues, 0, size);
+			System.arraycopy(yValues, start, yValues, 0, size);
+		} else {
+			final int newCapacity = compact ? xValues.length : Math.max(capacity, xValues.length
+					+ (xValues.length >> 1));
+			xValues = Arrays.copyOfRange(xValues, start, start + newCapacity);
+			yValues = Arrays.copyOfRange(yValues, start, start + newCapacity);
+			snapshotCount = 0;
+		}
+		start = 0;
+	}
+
+	/**
+	 * Copies values from a ring buffer, starting at the given position, which may lie beyond the end of the ring.
+	 */
+	private static void copyFromRing(final double[] ring, final int position, final double[] target,
+			final int targetIndex, final int length) {
+		final int ringIndex = position < ring.length ? position : position - ring.length;
+		final int firstLength = Math.min(length, ring.length - ringIndex);
+		System.arraycopy(ring, ringIndex, target, targetIndex, firstLength);
+		System.arraycopy(ring, 0, target, targetIndex + firstLength, length - firstLength);
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	private static void checkColumns(final double[] xValues, final double[] yValues, final int size) {
+		if (size < 0 || xValues.length < size || yValues.length < size) {
+			throw new IllegalArgumentException("Columns are shorter than the given size " + size);
+		}
+	}
+
+	private static void checkColumns(final DoubleBuffer xValues, final DoubleBuffer yValues) {
+		if (yValues.remaining() < xValues.remaining()) {
+			throw new IllegalArgumentException("There are fewer y values than x values");
+		}
+	}
+
+	private static double toDouble(final Number value) {
+		return value == null ? Double.NaN : value.doubleValue();
+	}
+
+	/**
+	 * A read-only list of points that are no longer part of any series, used to report removed items to listeners.
+	 */
+	private static final class DetachedItems extends AbstractList<DataItem> implements RandomAccess {
+
+		private final DoubleBuffer xValues;
+		private final DoubleBuffer yValues;
+		private final int offset;
+		private final int size;
+
+		private DetachedItems(final double[] xValues, final double[] yValues, final int size) {
+			this(DoubleBuffer.wrap(xValues), DoubleBuffer.wrap(yValues), 0, size);
+		}
+
+		private DetachedItems(final DoubleBuffer xValues, final DoubleBuffer yValues, final int offset, final int size) {
+			this.xValues = xValues;
+			this.yValues = yValues;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		@Override
+		public DataItem get(final int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return new DataItem(xValues.get(offset + index), yValues.get(offset + index));
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -7,7 +7,7 @@
  */
 package de.tesis.dynaware.javafx.fancychart.data;
 
-import java.util.List;
+import javafx.concurrent.Task;
 
 import de.tesis.dynaware.javafx.fancychart.data.DataItemDao.FileFormat;
 
@@ -15,9 +15,8 @@ public class DefaultDataSet3 {
 
 	private static final String FILE_NAME = "random_data_3.csv";
 
-	public static List<DataItem> getDataItems() {
-		String filePath = DefaultDataSet3.class.getResource(FILE_NAME).getFile();
-		return DataItemDao.importFromFile(filePath, FileFormat.CSV);
+	public static Task<DataSeries> createLoadTask() {
+		return DataItemDao.createResourceImportTask(DefaultDataSet3.class, FILE_NAME, FileFormat.CSV);
 	}
 
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.tesis.dynaware.javafx.fancychart.data.formats.BinaryDao;
+
+/**
+ * An on-disk cache of imported data sets, so that a file that has not changed since it was last imported does not have
+ * to be parsed again.
+ *
+ * <p>
+ * Each entry is a file in the binary format of {@link BinaryDao}, which is memory-mapped when it is found. An entry is
+ * found by a key made of the absolute path, the size and the modification time of the imported file, and a variant
+ * that tells how the file was imported. The content of the file is not part of the key, since hashing it would mean
+ * reading all of it on every import. A file that is changed while keeping its size and its modification time is
+ * therefore served with its old content.
+ * </p>
+ *
+ * <p>
+ * When the entries take up more space than allowed, the least recently used ones are deleted. Entries that are still
+ * mapped by a data set are kept, since they cannot be deleted on some platforms. Entries are written to a temporary
+ * file first and then moved into place, so several applications can share a cache directory.
+ * </p>
+ */
+public class ImportCache {
+
+	/**
+	 * The default maximum size of all entries, in bytes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 4L << 30;
+
+	private static final String ENTRY_EXTENSION = ".fcs";
+
+	private final Path directory;
+	private final long maxSize;
+
+	/**
+	 * Creates a cache in the given directory.
+	 *
+	 * @param directory
+	 *            the directory of the entries, which is created if it does not exist
+	 * @param maxSize
+	 *            the maximum size of all entries in bytes
+	 */
+	public ImportCache(final String directory, final long maxSize) {
+		this.directory = Paths.get(directory);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Creates a cache in the directory {@code .fancychart/import-cache} in the home directory of the user, with the
+	 * default maximum size.
+	 *
+	 * @return a new cache
+	 */
+	public static ImportCache createDefault() {
+		final Path directory = Paths.get(System.getProperty("user.home"), ".fancychart", "import-cache");
+		return new ImportCache(directory.toString(), DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates the key of a file as it is now, from its path, its size and its modification time. The content of the
+	 * file is not read.
+	 *
+	 * @param filePath
+	 *            the path of the imported file
+	 * @param variant
+	 *            a name for the way the file is imported, e.g. its format and options
+	 * @return the key, or {@code null} if the attributes of the file cannot be read
+	 */
+	public String createKey(final String filePath, final String variant) {
+		final Path file = Paths.get(filePath).toAbsolutePath();
+		try {
+			final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(file.toString().getBytes(StandardCharsets.UTF_8));
+			digest.update(variant.getBytes(StandardCharsets.UTF_8));
+			// the modification time is used with the full precision of the file system
+			digest.update(ByteBuffer.allocate(2 * Long.BYTES).putLong(attributes.size())
+					.putLong(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)).array());
+			return toHex(digest.digest());
+		} catch (IOException | NoSuchAlgorithmException e) {
+			System.err.println(e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Opens the entry with the given key and marks it as recently used.
+	 *
+	 * @param key
+	 *            the key of the entry
+	 * @return a data set that is a view of the memory-mapped entry, or {@code null} if there is no entry
+	 */
+	public DataSeries get(final String key) {
+		final Path entry = directory.resolve(key + ENTRY_EXTENSION);
+		if (!Files.isRegularFile(entry)) {
+			return null;
+		}
+		try {
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the entry is still usable, it may just be evicted a bit earlier
+		}
+		return BinaryDao.mapBinary(entry.toString());
+	}
+
+	/**
+	 * Stores a data set as the entry with the given key, and deletes the least recently used entries if the cache has
+	 * become too large.
+	 *
+	 * @param key
+	 *            the key of the entry
+	 * @param data
+	 *            the data set, which must not change while it is stored
+	 */
+	public void put(final String key, final DataSeries data) {
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		final Path entry = directory.resolve(key + ENTRY_EXTENSION);
+		BinaryDao.exportBinary(data, entry.toString(), ProgressMonitor.NONE);
+		evict(entry);
+	}
+
+	/**
+	 * Deletes all entries that are not mapped by a data set.
+	 */
+	public void clear() {
+		for (final Path entry : listEntries()) {
+			if (!BinaryDao.isMapped(entry.toString())) {
+				entry.toFile().delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the entries fit into the maximum size. The given entry and the
+	 * entries that are mapped are kept in any case.
+	 */
+	private void evict(final Path keptEntry) {
+		final List<Path> entries = listEntries();
+		final List<FileTime> lastUses = new ArrayList<>(entries.size());
+		long totalSize = 0;
+		for (final Path entry : entries) {
+			try {
+				final BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+				totalSize += attributes.size();
+				lastUses.add(attributes.lastModifiedTime());
+			} catch (IOException e) {
+				lastUses.add(FileTime.fromMillis(Long.MAX_VALUE));
+			}
+		}
+
+		final List<Integer> order = new ArrayList<>(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer first, final Integer second) {
+				return lastUses.get(first).compareTo(lastUses.get(second));
+			}
+		});
+
+		for (int i = 0; i < order.size() && totalSize > maxSize; i++) {
+			final Path entry = entries.get(order.get(i));
+			if (!entry.equals(keptEntry) && !BinaryDao.isMapped(entry.toString())) {
+				final long size = entry.toFile().length();
+				if (entry.toFile().delete()) {
+					totalSize -= size;
+				}
+			}
+		}
+	}
+
+	private List<Path> listEntries() {
+		final List<Path> entries = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return entries;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ENTRY_EXTENSION)) {
+			for (final Path entry : stream) {
+				entries.add(entry);
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return entries;
+	}
+
+	private static String toHex(final byte[] bytes) {
+		final StringBuilder builder = new StringBuilder(2 * bytes.length);
+		for (final byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return builder.toString();
+	}
+}
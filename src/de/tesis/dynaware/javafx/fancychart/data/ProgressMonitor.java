@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+/**
+ * Receives the progress of a long-running import or export and tells it whether it should stop early.
+ *
+ * <p>
+ * The methods are called on the threads that do the work, which usually are not the JavaFX application thread. Work
+ * that is split up among several threads may call them from all of these threads at once.
+ * </p>
+ */
+public interface ProgressMonitor {
+
+	/**
+	 * A monitor that ignores the progress and never cancels.
+	 */
+	ProgressMonitor NONE = new ProgressMonitor() {
+
+		@Override
+		public void updateProgress(final long workDone, final long totalWork) {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+	};
+
+	/**
+	 * Reports the progress of the work, e.g. in bytes or rows.
+	 *
+	 * @param workDone
+	 *            the amount of work that is done
+	 * @param totalWork
+	 *            the total amount of work, or -1 if it is not known
+	 */
+	void updateProgress(long workDone, long totalWork);
+
+	/**
+	 * @return {@code true} if the work should stop as soon as possible
+	 */
+	boolean isCancelled();
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+/**
+ * Describes a data set that is stored in a workspace file, so that it can be shown before its points are loaded.
+ */
+public class SeriesMetadata {
+
+	private final String name;
+	private final String color;
+	private final int size;
+	private final double minX;
+	private final double maxX;
+	private final double minY;
+	private final double maxY;
+
+	/**
+	 * Creates new metadata.
+	 *
+	 * @param name
+	 *            the name of the data set
+	 * @param color
+	 *            the colour of the data set as a web colour, e.g. {@code #f3622d}
+	 * @param size
+	 *            the number of points
+	 * @param minX
+	 *            the smallest x value, or {@link Double#NaN} if there is none
+	 * @param maxX
+	 *            the largest x value, or {@link Double#NaN} if there is none
+	 * @param minY
+	 *            the smallest y value, or {@link Double#NaN} if there is none
+	 * @param maxY
+	 *            the largest y value, or {@link Double#NaN} if there is none
+	 */
+	public SeriesMetadata(final String name, final String color, final int size, final double minX, final double maxX,
+			final double minY, final double maxY) {
+		this.name = name;
+		this.color = color;
+		this.size = size;
+		this.minX = minX;
+		this.maxX = maxX;
+		this.minY = minY;
+		this.maxY = maxY;
+	}
+
+	/**
+	 * Creates the metadata of a data set. Missing values are ignored for the bounds.
+	 *
+	 * @param name
+	 *            the name of the data set
+	 * @param color
+	 *            the colour of the data set as a web colour
+	 * @param dataSeries
+	 *            the data set
+	 * @return the metadata of the data set
+	 */
+	public static SeriesMetadata create(final String name, final String color, final DataSeries dataSeries) {
+		double minX = Double.NaN;
+		double maxX = Double.NaN;
+		double minY = Double.NaN;
+		double maxY = Double.NaN;
+		for (int i = 0; i < dataSeries.size(); i++) {
+			final double x = dataSeries.getX(i);
+			final double y = dataSeries.getY(i);
+			if (!Double.isNaN(x)) {
+				minX = Double.isNaN(minX) || x < minX ? x : minX;
+				maxX = Double.isNaN(maxX) || x > maxX ? x : maxX;
+			}
+			if (!Double.isNaN(y)) {
+				minY = Double.isNaN(minY) || y < minY ? y : minY;
+				maxY = Double.isNaN(maxY) || y > maxY ? y : maxY;
+			}
+		}
+		return new SeriesMetadata(name, color, dataSeries.size(), minX, maxX, minY, maxY);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getColor() {
+		return color;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+
+/**
+ * A level-of-detail index of a {@link DataSeries}.
+ *
+ * <p>
+ * Each level splits the series into buckets of 2<sup>n</sup> consecutive points and stores the index of the lowest and
+ * the highest point of every bucket. The first and last point of a bucket are given by its bounds, so they are not
+ * stored. The finest level has buckets of {@value #FIRST_LEVEL_BUCKET_SIZE} points, which keeps the index at about an
+ * eighth of the size of the series. The pyramid follows the changes of its series: edits only update the buckets that
+ * contain the edited points, appends only add buckets at the end.
+ * </p>
+ *
+ * <p>
+ * Buckets are aligned to positions rather than to indices. Points removed from the head of the series, like a sliding
+ * window does, only move the position of the first point, so the buckets of the remaining points stay valid. Once
+ * more positions are unused than used, the pyramid is rebuilt from position 0.
+ * </p>
+ *
+ * <p>
+ * Building the pyramid of a series that is a view of buffers, e.g. of a memory-mapped file, reads the whole file, so it
+ * is done on a background thread. Until it is done, queries are answered from evenly spaced samples of the series.
+ * Invalidation listeners are notified when the pyramid is ready.
+ * </p>
+ */
+public class SeriesPyramid implements Observable {
+
+	private static final int FIRST_LEVEL_SHIFT = 3;
+	private static final int FIRST_LEVEL_BUCKET_SIZE = 1 << FIRST_LEVEL_SHIFT;
+
+	/**
+	 * The number of samples that are looked at to estimate an extreme while the pyramid is built.
+	 */
+	private static final int PREVIEW_SAMPLES = 4096;
+
+	/**
+	 * Builds the pyramids of series that are views of buffers.
+	 */
+	private static final ExecutorService BUILD_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "Series pyramid build");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final DataSeries series;
+	private final List<InvalidationListener> listeners = new ArrayList<>();
+
+	// the stored extremes are positions, the position of a point is its index plus the origin
+	private int[][] minIndices = new int[0][];
+	private int[][] maxIndices = new int[0][];
+	private int origin;
+	private int indexedSize;
+	// false while the pyramid is built in the background
+	private boolean ready;
+
+	// changed on the JavaFX application thread only, read by the build to find out whether it is still needed
+	private volatile long buildGeneration;
+	private Future<?> pendingBuild;
+
+	/**
+	 * Creates a pyramid for the given series and keeps it up to date when the series changes.
+	 *
+	 * @param series
+	 *            the series to index
+	 */
+	public SeriesPyramid(final DataSeries series) {
+		this(series, true);
+	}
+
+	/**
+	 * Creates a pyramid for the given series. A pyramid that does not follow the changes of its series is built on the
+	 * calling thread.
+	 */
+	private SeriesPyramid(final DataSeries series, final boolean followChanges) {
+		this.series = series;
+		if (!followChanges) {
+			rebuildFrom(0);
+			ready = true;
+			return;
+		}
+		rebuild();
+
+		series.addListener(new ListChangeListener<DataItem>() {
+			@Override
+			public void onChanged(final Change<? extends DataItem> change) {
+				applyChange(change);
+			}
+		});
+	}
+
+	/**
+	 * @return the indexed series
+	 */
+	public DataSeries getDataSeries() {
+		return series;
+	}
+
+	/**
+	 * @return {@code false} while the pyramid is built in the background and queries are only answered from samples
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	@Override
+	public void addListener(final InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(final InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Selects the points that represent the given index range at a resolution of about {@code bucketCount} buckets.
+	 * For each bucket the first, lowest, highest and last point are selected, in ascending index order. The work
+	 * depends on the number of buckets, not on the size of the range.
+	 *
+	 * @param from
+	 *            the index of the first point (inclusive)
+	 * @param to
+	 *            the index of the last point (exclusive)
+	 * @param bucketCount
+	 *            the number of buckets the range should be split into
+	 * @param indices
+	 *            the array that receives the selected indices, must have room for {@code 4 * (bucketCount + 2)}
+	 *            entries
+	 * @return the number of selected indices
+	 */
+	public int query(final int from, final int to, final int bucketCount, final int[] indices) {
+		final int length = to - from;
+		if (length <= 0) {
+			return 0;
+		}
+
+		final int buckets = Math.max(bucketCount, 1);
+		if (!ready) {
+			return addSamples(from, to, 4 * buckets, indices);
+		}
+		final int shift = ceilLog2((length + buckets - 1) / buckets);
+		final int level = Math.min(shift - FIRST_LEVEL_SHIFT, minIndices.length - 1);
+		if (level < 0) {
+			return SeriesReducer.reduce(series, from, to, 4 * buckets, SeriesReducer.Method.MIN_MAX, indices);
+		}
+
+		final int start = origin + from;
+		final int end = origin + to;
+		final int levelShift = level + FIRST_LEVEL_SHIFT;
+		final int bucketSize = 1 << levelShift;
+		final int firstBucket = (start + bucketSize - 1) >> levelShift;
+		final int endBucket = end >> levelShift;
+		if (firstBucket >= endBucket) {
+			return addRange(start, end, indices, 0);
+		}
+
+		// the parts of the range that don't fill a whole bucket become buckets of their own
+		int count = addRange(start, firstBucket << levelShift, indices, 0);
+		final int[] levelMinIndices = minIndices[level];
+		final int[] levelMaxIndices = maxIndices[level];
+		for (int bucket = firstBucket; bucket < endBucket; bucket++) {
+			final int bucketStart = bucket << levelShift;
+			count = addBucket(bucketStart, levelMinIndices[bucket], levelMaxIndices[bucket], bucketStart + bucketSize
+					- 1, indices, count);
+		}
+		return addRange(endBucket << levelShift, end, indices, count);
+	}
+
+	/**
+	 * Finds the point with the lowest y value in the given index range in O(log n). While the pyramid is built, only
+	 * a sample of the points is looked at.
+	 *
+	 * @param from
+	 *            the index of the first point (inclusive)
+	 * @param to
+	 *            the index of the last point (exclusive)
+	 * @return the index of the lowest point, or -1 if the range is empty
+	 */
+	public int indexOfMinY(final int from, final int to) {
+		if (!ready) {
+			return findSampledExtreme(from, to, true);
+		}
+		return toIndex(findExtreme(origin + from, origin + to, minIndices, true));
+	}
+
+	/**
+	 * Finds the point with the highest y value in the given index range in O(log n). While the pyramid is built, only
+	 * a sample of the points is looked at.
+	 *
+	 * @param from
+	 *            the index of the first point (inclusive)
+	 * @param to
+	 *            the index of the last point (exclusive)
+	 * @return the index of the highest point, or -1 if the range is empty
+	 */
+	public int indexOfMaxY(final int from, final int to) {
+		if (!ready) {
+			return findSampledExtreme(from, to, false);
+		}
+		return toIndex(findExtreme(origin + from, origin + to, maxIndices, false));
+	}
+
+	/**
+	 * Walks the position range in the largest aligned buckets that fit, like a segment tree.
+	 */
+	private int findExtreme(final int start, final int end, final int[][] levels, final boolean lowest) {
+		int best = -1;
+		int position = start;
+		while (position < end) {
+			final int alignment = position == 0 ? Integer.SIZE - 1 : Integer.numberOfTrailingZeros(position);
+			final int fit = floorLog2(end - position);
+			final int level = Math.min(Math.min(alignment, fit) - FIRST_LEVEL_SHIFT, levels.length - 1);
+
+			final int candidate;
+			if (level < 0) {
+				candidate = position;
+				position++;
+			} else {
+				candidate = levels[level][position >> (level + FIRST_LEVEL_SHIFT)];
+				position += 1 << (level + FIRST_LEVEL_SHIFT);
+			}
+			if (best < 0 || isBetter(getY(candidate), getY(best), lowest)) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the lowest or highest of evenly spaced samples of the given index range.
+	 */
+	private int findSampledExtreme(final int from, final int to, final boolean lowest) {
+		final int length = to - from;
+		final int samples = Math.min(length, PREVIEW_SAMPLES);
+		int best = -1;
+		for (int i = 0; i < samples; i++) {
+			final int candidate = from + getSampleOffset(i, samples, length);
+			if (best < 0 || isBetter(series.getY(candidate), series.getY(best), lowest)) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	private void applyChange(final ListChangeListener.Change<? extends DataItem> change) {
+		// a series that was replaced by a view of buffers, or that was changed while its pyramid was built
+		if (!ready || series.isBufferView()) {
+			rebuild();
+			return;
+		}
+
+		int structuralFrom = Integer.MAX_VALUE;
+		int evicted = 0;
+		boolean onlyAppended = true;
+		while (change.next()) {
+			if (change.wasPermutated() || change.wasUpdated() || change.getAddedSize() == change.getRemovedSize()) {
+				continue;
+			}
+			if (change.getFrom() == 0 && !change.wasAdded() && evicted == 0) {
+				evicted = change.getRemovedSize();
+			} else {
+				structuralFrom = Math.min(structuralFrom, change.getFrom());
+				onlyAppended &= !change.wasRemoved();
+			}
+		}
+
+		// points removed from the head keep the positions of the remaining points
+		if (evicted > 0) {
+			if (!onlyAppended || origin + evicted > series.size()) {
+				origin = 0;
+				rebuildFrom(0);
+				return;
+			}
+			origin += evicted;
+			indexedSize -= evicted;
+			rebuildHead();
+		}
+
+		change.reset();
+		if (structuralFrom == Integer.MAX_VALUE) {
+			while (change.next()) {
+				if (change.wasPermutated() || change.wasUpdated() || change.getAddedSize() == change.getRemovedSize()) {
+					updateRange(origin + change.getFrom(), origin + change.getTo());
+				}
+			}
+		} else {
+			int from = structuralFrom;
+			while (change.next()) {
+				if (change.getFrom() > 0 || change.wasAdded()) {
+					from = Math.min(from, change.getFrom());
+				}
+			}
+			if (from == 0) {
+				origin = 0;
+			}
+			rebuildFrom(origin + from);
+		}
+	}
+
+	/**
+	 * Rebuilds the whole pyramid. The pyramid of a view of buffers is built in the background and replaces the current
+	 * one once it is done, unless the series has been changed again by then.
+	 */
+	private void rebuild() {
+		final long requestGeneration = ++buildGeneration;
+		if (pendingBuild != null) {
+			pendingBuild.cancel(false);
+			pendingBuild = null;
+		}
+		origin = 0;
+		if (!series.isBufferView() || series.isEmpty()) {
+			rebuildFrom(0);
+			ready = true;
+			return;
+		}
+
+		ready = false;
+		minIndices = new int[0][];
+		maxIndices = new int[0][];
+		indexedSize = 0;
+		// the copy shares the buffers, which are never written, so it can be read on another thread
+		final DataSeries view = series.copy();
+		pendingBuild = BUILD_EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (requestGeneration != buildGeneration) {
+					return;
+				}
+				final SeriesPyramid built;
+				try {
+					built = new SeriesPyramid(view, false);
+				} catch (final RuntimeException e) {
+					System.err.println(e.getMessage());
+					return;
+				}
+
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						if (requestGeneration == buildGeneration) {
+							pendingBuild = null;
+							minIndices = built.minIndices;
+							maxIndices = built.maxIndices;
+							indexedSize = built.indexedSize;
+							ready = true;
+							fireInvalidated();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void fireInvalidated() {
+		for (final InvalidationListener listener : new ArrayList<>(listeners)) {
+			listener.invalidated(this);
+		}
+	}
+
+	/**
+	 * Recomputes the buckets that contain the first point, after points were removed from the head.
+	 */
+	private void rebuildHead() {
+		for (int level = 0; level < minIndices.length; level++) {
+			computeBucket(level, origin >> (level + FIRST_LEVEL_SHIFT));
+		}
+	}
+
+	/**
+	 * Recomputes all buckets that contain points in the given position range, after the points were changed in place.
+	 */
+	private void updateRange(final int start, final int end) {
+		if (start >= end) {
+			return;
+		}
+		for (int level = 0; level < minIndices.length; level++) {
+			final int shift = level + FIRST_LEVEL_SHIFT;
+			final int lastBucket = (end - 1) >> shift;
+			for (int bucket = start >> shift; bucket <= lastBucket; bucket++) {
+				computeBucket(level, bucket);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes all buckets from the one that contains the given position to the end, after points were inserted or
+	 * removed.
+	 */
+	private void rebuildFrom(final int start) {
+		indexedSize = series.size();
+		if (indexedSize == 0) {
+			origin = 0;
+		}
+		final int end = origin + indexedSize;
+		int levelCount = 0;
+		while (end > 1 << (levelCount + FIRST_LEVEL_SHIFT)) {
+			levelCount++;
+		}
+		if (indexedSize > 0) {
+			levelCount++;
+		}
+
+		final int oldLevelCount = minIndices.length;
+		if (levelCount != oldLevelCount) {
+			minIndices = Arrays.copyOf(minIndices, levelCount);
+			maxIndices = Arrays.copyOf(maxIndices, levelCount);
+		}
+
+		for (int level = 0; level < levelCount; level++) {
+			final int bucketCount = getBucketCount(level);
+			if (minIndices[level] == null || minIndices[level].length < bucketCount) {
+				final int capacity = Math.max(bucketCount, bucketCount + (bucketCount >> 1));
+				minIndices[level] = minIndices[level] == null ? new int[capacity] : Arrays.copyOf(minIndices[level],
+						capacity);
+				maxIndices[level] = maxIndices[level] == null ? new int[capacity] : Arrays.copyOf(maxIndices[level],
+						capacity);
+			}
+			final int firstBucket = level < oldLevelCount ? start >> (level + FIRST_LEVEL_SHIFT) : 0;
+			for (int bucket = firstBucket; bucket < bucketCount; bucket++) {
+				computeBucket(level, bucket);
+			}
+		}
+	}
+
+	/**
+	 * Computes the extremes of a bucket from the points or the child buckets that are in use. Buckets that only cover
+	 * positions in front of the origin get -1.
+	 */
+	private void computeBucket(final int level, final int bucket) {
+		int minIndex = -1;
+		int maxIndex = -1;
+		if (level == 0) {
+			final int start = Math.max(bucket << FIRST_LEVEL_SHIFT, origin);
+			final int end = Math.min((bucket + 1) << FIRST_LEVEL_SHIFT, origin + indexedSize);
+			if (start < end) {
+				minIndex = start;
+				maxIndex = start;
+			}
+			for (int position = start + 1; position < end; position++) {
+				final double y = getY(position);
+				if (isBetter(y, getY(minIndex), true)) {
+					minIndex = position;
+				}
+				if (isBetter(y, getY(maxIndex), false)) {
+					maxIndex = position;
+				}
+			}
+		} else {
+			final int[] childMinIndices = minIndices[level - 1];
+			final int[] childMaxIndices = maxIndices[level - 1];
+			final int childShift = level - 1 + FIRST_LEVEL_SHIFT;
+			final int endChild = Math.min((bucket << 1) + 2, getBucketCount(level - 1));
+			for (int child = bucket << 1; child < endChild; child++) {
+
+				// children in front of the origin may still hold extremes of evicted points
+				final int childMinIndex = childMinIndices[child];
+				if ((child + 1) << childShift <= origin || childMinIndex < 0) {
+					continue;
+				}
+				if (minIndex < 0 || isBetter(getY(childMinIndex), getY(minIndex), true)) {
+					minIndex = childMinIndex;
+				}
+				if (maxIndex < 0 || isBetter(getY(childMaxIndices[child]), getY(maxIndex), false)) {
+					maxIndex = childMaxIndices[child];
+				}
+			}
+		}
+		minIndices[level][bucket] = minIndex;
+		maxIndices[level][bucket] = maxIndex;
+	}
+
+	private int getBucketCount(final int level) {
+		final int shift = level + FIRST_LEVEL_SHIFT;
+		return (origin + indexedSize + (1 << shift) - 1) >> shift;
+	}
+
+	private double getY(final int position) {
+		return series.getY(position - origin);
+	}
+
+	private int toIndex(final int position) {
+		return position < 0 ? -1 : position - origin;
+	}
+
+	/**
+	 * Adds the first, lowest, highest and last point of a position range that is not aligned to the stored buckets.
+	 */
+	private int addRange(final int start, final int end, final int[] indices, final int count) {
+		if (start >= end) {
+			return count;
+		}
+		return addBucket(start, findExtreme(start, end, minIndices, true), findExtreme(start, end, maxIndices, false),
+				end - 1, indices, count);
+	}
+
+	/**
+	 * Adds the first, lowest, highest and last point of a bucket, given as positions, as indices.
+	 */
+	private int addBucket(final int first, final int minIndex, final int maxIndex, final int last,
+			final int[] indices, final int count) {
+		int newCount = count;
+		newCount = addIndex(first - origin, indices, newCount);
+		newCount = addIndex(Math.min(minIndex, maxIndex) - origin, indices, newCount);
+		newCount = addIndex(Math.max(minIndex, maxIndex) - origin, indices, newCount);
+		return addIndex(last - origin, indices, newCount);
+	}
+
+	/**
+	 * Adds evenly spaced samples of an index range, including its first and last point.
+	 */
+	private static int addSamples(final int from, final int to, final int sampleCount, final int[] indices) {
+		final int length = to - from;
+		final int samples = Math.min(length, sampleCount);
+		int count = 0;
+		for (int i = 0; i < samples; i++) {
+			count = addIndex(from + getSampleOffset(i, samples, length), indices, count);
+		}
+		return count;
+	}
+
+	private static int getSampleOffset(final int sample, final int samples, final int length) {
+		return samples < 2 ? 0 : (int) ((long) sample * (length - 1) / (samples - 1));
+	}
+
+	private static int addIndex(final int index, final int[] indices, final int count) {
+		if (count > 0 && indices[count - 1] == index) {
+			return count;
+		}
+		indices[count] = index;
+		return count + 1;
+	}
+
+	/**
+	 * Compares two y values. NaN values always lose, so they only end up as a result if there is nothing else.
+	 */
+	private static boolean isBetter(final double candidate, final double current, final boolean lowest) {
+		if (Double.isNaN(current)) {
+			return !Double.isNaN(candidate);
+		}
+		return lowest ? candidate < current : candidate > current;
+	}
+
+	private static int ceilLog2(final int value) {
+		return value <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(value - 1);
+	}
+
+	private static int floorLog2(final int value) {
+		return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value);
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+/**
+ * Selects a subset of the points of a {@link DataSeries} that looks the same as the full series when it is drawn as a
+ * line at a given resolution. The result is a list of point indices in ascending order, so the selected points can
+ * always be mapped back to the full-resolution data.
+ */
+public final class SeriesReducer {
+
+	private SeriesReducer() {
+	}
+
+	/**
+	 * Reduces the points in the given index range to at most the given number of points.
+	 *
+	 * @param series
+	 *            the series to reduce
+	 * @param from
+	 *            the index of the first point to consider (inclusive)
+	 * @param to
+	 *            the index of the last point to consider (exclusive)
+	 * @param maxPoints
+	 *            the maximum number of points to select
+	 * @param method
+	 *            the reduction method
+	 * @param indices
+	 *            the array that receives the selected indices, must have room for {@code maxPoints} entries
+	 * @return the number of selected indices
+	 */
+	public static int reduce(final DataSeries series, final int from, final int to, final int maxPoints,
+			final Method method, final int[] indices) {
+		final int count = to - from;
+		if (count <= maxPoints) {
+			for (int i = 0; i < count; i++) {
+				indices[i] = from + i;
+			}
+			return count;
+		}
+
+		switch (method) {
+		case LTTB:
+			return largestTriangleThreeBuckets(series, from, to, maxPoints, indices);
+		case MIN_MAX:
+		default:
+			return minMax(series, from, to, maxPoints / 4, indices);
+		}
+	}
+
+	/**
+	 * Splits the range into buckets and keeps the first, last, lowest and highest point of each bucket. This keeps
+	 * every peak of the series visible.
+	 */
+	private static int minMax(final DataSeries series, final int from, final int to, final int bucketCount,
+			final int[] indices) {
+		final int buckets = Math.max(bucketCount, 1);
+		final double bucketSize = (double) (to - from) / buckets;
+		final int[] candidates = new int[4];
+
+		int count = 0;
+		for (int bucket = 0; bucket < buckets; bucket++) {
+			final int start = from + (int) (bucket * bucketSize);
+			final int end = bucket == buckets - 1 ? to : from + (int) ((bucket + 1) * bucketSize);
+			if (start >= end) {
+				continue;
+			}
+
+			int minIndex = start;
+			int maxIndex = start;
+			double min = series.getY(start);
+			double max = min;
+			for (int i = start + 1; i < end; i++) {
+				final double y = series.getY(i);
+				if (y < min) {
+					min = y;
+					minIndex = i;
+				} else if (y > max) {
+					max = y;
+					maxIndex = i;
+				}
+			}
+
+			candidates[0] = start;
+			candidates[1] = Math.min(minIndex, maxIndex);
+			candidates[2] = Math.max(minIndex, maxIndex);
+			candidates[3] = end - 1;
+			for (final int candidate : candidates) {
+				if (count == 0 || indices[count - 1] != candidate) {
+					indices[count++] = candidate;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Implements the Largest-Triangle-Three-Buckets algorithm by Sveinn Steinarsson. The first and last points are
+	 * always kept. From each bucket in between, the point that forms the largest triangle with the previously selected
+	 * point and the average of the next bucket is selected.
+	 */
+	private static int largestTriangleThreeBuckets(final DataSeries series, final int from, final int to,
+			final int maxPoints, final int[] indices) {
+		final int threshold = Math.max(maxPoints, 3);
+		final double bucketSize = (double) (to - from - 2) / (threshold - 2);
+
+		int count = 0;
+		int selected = from;
+		indices[count++] = selected;
+
+		for (int bucket = 0; bucket < threshold - 2; bucket++) {
+
+			// average of the next bucket, the last point counts as a bucket of its own
+			final int averageStart = from + (int) ((bucket + 1) * bucketSize) + 1;
+			final int averageEnd = Math.min(from + (int) ((bucket + 2) * bucketSize) + 1, to);
+			double averageX = 0;
+			double averageY = 0;
+			for (int i = averageStart; i < averageEnd; i++) {
+				averageX += series.getX(i);
+				averageY += series.getY(i);
+			}
+			final int averageCount = averageEnd - averageStart;
+			if (averageCount > 0) {
+				averageX /= averageCount;
+				averageY /= averageCount;
+			} else {
+				averageX = series.getX(to - 1);
+				averageY = series.getY(to - 1);
+			}
+
+			final int rangeStart = from + (int) (bucket * bucketSize) + 1;
+			final int rangeEnd = from + (int) ((bucket + 1) * bucketSize) + 1;
+			final double selectedX = series.getX(selected);
+			final double selectedY = series.getY(selected);
+
+			double maxArea = -1;
+			int next = rangeStart;
+			for (int i = rangeStart; i < rangeEnd; i++) {
+				final double area = Math.abs((selectedX - averageX) * (series.getY(i) - selectedY)
+						- (selectedX - series.getX(i)) * (averageY - selectedY));
+				if (area > maxArea) {
+					maxArea = area;
+					next = i;
+				}
+			}
+
+			selected = next;
+			indices[count++] = selected;
+		}
+
+		indices[count++] = to - 1;
+		return count;
+	}
+
+	/**
+	 * The available reduction methods.
+	 */
+	public enum Method {
+
+		/**
+		 * Keeps the first, last, lowest and highest point per bucket. Peaks are never lost.
+		 */
+		MIN_MAX,
+
+		/**
+		 * Largest-Triangle-Three-Buckets. Keeps the overall shape with fewer points, but may drop single peaks.
+		 */
+		LTTB
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Streams points into a {@link DataSeries} that shows a sliding window of the most recent points.
+ *
+ * <p>
+ * Points can be appended from any thread. They are collected in a ring buffer of primitive values and applied to the
+ * data set once per JavaFX pulse, as a single change that appends the new points and evicts the oldest ones. The
+ * chart therefore updates at most once per frame, no matter how fast the points arrive.
+ * </p>
+ *
+ * <p>
+ * The ring buffer has the capacity of the window. If more points arrive within one pulse, the oldest pending points
+ * are overwritten, because they would have left the window anyway. The pending points are appended to the data set
+ * straight from the ring buffer, so appends on other threads wait while the data set applies them and notifies its
+ * listeners.
+ * </p>
+ */
+public class StreamingSeries {
+
+	private final DataSeries dataSeries;
+	private final int windowSize;
+
+	private final Object lock = new Object();
+	private final double[] pendingXValues;
+	private final double[] pendingYValues;
+	private int pendingStart;
+	private int pendingCount;
+
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(final long now) {
+			flush();
+		}
+	};
+
+	/**
+	 * Creates a new streaming series that appends to the given data set.
+	 *
+	 * @param dataSeries
+	 *            the data set that shows the window
+	 * @param windowSize
+	 *            the maximum number of points the data set keeps
+	 */
+	public StreamingSeries(final DataSeries dataSeries, final int windowSize) {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+		}
+		this.dataSeries = dataSeries;
+		this.windowSize = windowSize;
+		pendingXValues = new double[windowSize];
+		pendingYValues = new double[windowSize];
+	}
+
+	/**
+	 * @return the data set that shows the window
+	 */
+	public DataSeries getDataSeries() {
+		return dataSeries;
+	}
+
+	/**
+	 * @return the maximum number of points the data set keeps
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Appends a point. May be called from any thread.
+	 *
+	 * @param x
+	 *            the x value
+	 * @param y
+	 *            the y value
+	 */
+	public void append(final double x, final double y) {
+		synchronized (lock) {
+			int index = pendingStart + pendingCount;
+			if (index >= windowSize) {
+				index -= windowSize;
+			}
+			pendingXValues[index] = x;
+			pendingYValues[index] = y;
+			if (pendingCount < windowSize) {
+				pendingCount++;
+			} else {
+				pendingStart = index + 1 == windowSize ? 0 : index + 1;
+			}
+		}
+	}
+
+	/**
+	 * Appends several points. May be called from any thread.
+	 *
+	 * @param xValues
+	 *            the x values, which are copied
+	 * @param yValues
+	 *            the y values, which are copied
+	 * @param count
+	 *            the number of points to append
+	 */
+	public void append(final double[] xValues, final double[] yValues, final int count) {
+		if (count < 0 || xValues.length < count || yValues.length < count) {
+			throw new IllegalArgumentException("Columns are shorter than the given count " + count);
+		}
+
+		// points that would overwrite each other within this call are skipped
+		final int appended = Math.min(count, windowSize);
+		final int offset = count - appended;
+		synchronized (lock) {
+			int index = (pendingStart + pendingCount) % windowSize;
+			int copied = 0;
+			while (copied < appended) {
+				final int length = Math.min(appended - copied, windowSize - index);
+				System.arraycopy(xValues, offset + copied, pendingXValues, index, length);
+				System.arraycopy(yValues, offset + copied, pendingYValues, index, length);
+				copied += length;
+				index = (index + length) % windowSize;
+			}
+			final int overwritten = Math.max(pendingCount + appended - windowSize, 0);
+			pendingStart = (pendingStart + overwritten) % windowSize;
+			pendingCount = Math.min(pendingCount + appended, windowSize);
+		}
+	}
+
+	/**
+	 * Starts applying the appended points once per pulse. Must be called on the JavaFX application thread.
+	 */
+	public void start() {
+		timer.start();
+	}
+
+	/**
+	 * Stops applying the appended points. Points that are appended afterwards are kept until the next start or flush.
+	 * Must be called on the JavaFX application thread.
+	 */
+	public void stop() {
+		timer.stop();
+	}
+
+	/**
+	 * Applies all pending points to the data set right away. Must be called on the JavaFX application thread.
+	 */
+	public void flush() {
+		synchronized (lock) {
+			final int first = pendingStart;
+			final int count = pendingCount;
+			// the ring is emptied first, the points are copied out of it before any listener could append to it again
+			pendingStart = 0;
+			pendingCount = 0;
+			if (count > 0) {
+				dataSeries.appendAndEvict(pendingXValues, pendingYValues, first, count, windowSize);
+			}
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data.formats;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+import de.tesis.dynaware.javafx.fancychart.data.ProgressMonitor;
+
+/**
+ * Reads and writes data sets in a compact binary format that can be memory-mapped.
+ *
+ * <p>
+ * A file starts with a header of {@value #HEADER_SIZE} bytes: the magic bytes {@code FCSERIES}, the version and the
+ * flags as 32-bit integers, and the number of points as a 64-bit integer. It is followed by all x values and then all
+ * y values, as little-endian doubles. The flags say whether the x values are in ascending order, and whether they are
+ * even strictly ascending, so a file can be opened without looking at its values.
+ * </p>
+ *
+ * <p>
+ * A file is opened by mapping its columns into memory and wrapping the mappings in a {@link DataSeries}, without
+ * copying them. The operating system then reads the pages of the file when they are first accessed, and may drop them
+ * again when memory gets low. A mapping stays valid until the series is garbage-collected, so the file can be replaced
+ * by an export, but on some platforms it cannot be deleted in the meantime. {@link #isMapped(String)} tells whether a
+ * file is still mapped.
+ * </p>
+ */
+public class BinaryDao {
+
+	private static final byte[] MAGIC = { 'F', 'C', 'S', 'E', 'R', 'I', 'E', 'S' };
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private static final int FLAG_SORTED = 1;
+	private static final int FLAG_STRICTLY_SORTED = 2;
+
+	/**
+	 * A mapping of a single column is limited to 2 GB.
+	 */
+	private static final long MAX_POINTS = Integer.MAX_VALUE / Double.BYTES;
+
+	/**
+	 * The number of values that are written at once and after which the progress is reported.
+	 */
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	// the mappings of each file, a mapping is released once it has been garbage-collected
+	private static final Map<Path, List<WeakReference<MappedByteBuffer>>> MAPPINGS = new HashMap<>();
+
+	/**
+	 * Checks whether the x values of a file are in ascending order, as far as its header tells.
+	 *
+	 * @param filePath
+	 *            the path of the file
+	 * @param strictly
+	 *            {@code true} if no two x values may be equal
+	 * @return {@code true} if the file says that its x values are in (strictly) ascending order
+	 */
+	public static boolean isSortedByX(String filePath, boolean strictly) {
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			int flags = readHeader(channel).getInt(MAGIC.length + Integer.BYTES);
+			return (flags & (strictly ? FLAG_STRICTLY_SORTED : FLAG_SORTED)) != 0;
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a file is mapped by a data set that has not been garbage-collected yet.
+	 *
+	 * @param filePath
+	 *            the path of the file
+	 * @return {@code true} if a column of the file is still mapped
+	 */
+	public static boolean isMapped(String filePath) {
+		Path file = Paths.get(filePath).toAbsolutePath().normalize();
+		synchronized (MAPPINGS) {
+			List<WeakReference<MappedByteBuffer>> mappings = MAPPINGS.get(file);
+			if (mappings == null) {
+				return false;
+			}
+			for (Iterator<WeakReference<MappedByteBuffer>> iterator = mappings.iterator(); iterator.hasNext();) {
+				if (iterator.next().get() == null) {
+					iterator.remove();
+				}
+			}
+			if (mappings.isEmpty()) {
+				MAPPINGS.remove(file);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Opens a file as a data set that reads its values from memory-mapped columns. This takes the same short time for
+	 * any number of points, since no value is read.
+	 *
+	 * @param filePath
+	 *            the path of the file
+	 * @return a data set that is a view of the file, or an empty data set if the file could not be opened
+	 */
+	public static DataSeries mapBinary(String filePath) {
+		Path file = Paths.get(filePath).toAbsolutePath().normalize();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = readHeader(channel);
+			int size = (int) header.getLong(MAGIC.length + 2 * Integer.BYTES);
+			int flags = header.getInt(MAGIC.length + Integer.BYTES);
+			long columnLength = (long) size * Double.BYTES;
+
+			// the mappings stay valid after the channel is closed
+			DoubleBuffer xValues = mapColumn(channel, file, HEADER_SIZE, columnLength);
+			DoubleBuffer yValues = mapColumn(channel, file, HEADER_SIZE + columnLength, columnLength);
+			return new DataSeries(xValues, yValues, (flags & FLAG_SORTED) != 0);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return new DataSeries();
+	}
+
+	/**
+	 * Imports the points of a file into columns, in the order of the file, e.g. to sort them. The values are copied
+	 * from the mapped file. If the monitor is cancelled, the points read so far are returned.
+	 *
+	 * @param filePath
+	 *            the path of the file
+	 * @param monitor
+	 *            the monitor that receives the number of points read
+	 * @return the imported points
+	 */
+	public static DataColumns importBinary(String filePath, ProgressMonitor monitor) {
+		DataSeries data = mapBinary(filePath);
+		int size = data.size();
+		DataColumns columns = new DataColumns(size);
+		for (int i = 0; i < size; i++) {
+			columns.add(data.getX(i), data.getY(i));
+			if ((i + 1) % BLOCK_SIZE == 0) {
+				if (monitor.isCancelled()) {
+					break;
+				}
+				monitor.updateProgress(i + 1, size);
+			}
+		}
+		monitor.updateProgress(columns.size(), size);
+		return columns;
+	}
+
+	/**
+	 * Exports the points of a data set to a binary file, in the order of the data set. The file is written next to the
+	 * target and then moved over it, so a data set that is a view of the target keeps its values. If the monitor is
+	 * cancelled, the export stops before the target is replaced. A data set with more points than a file can be opened
+	 * with is not exported.
+	 *
+	 * @param data
+	 *            the data set to export, which must not change during the export
+	 * @param filePath
+	 *            the path of the file
+	 * @param monitor
+	 *            the monitor that receives the number of values written
+	 */
+	public static void exportBinary(DataSeries data, String filePath, ProgressMonitor monitor) {
+		int size = data.size();
+		if (size > MAX_POINTS) {
+			System.err.println("Too many points for a binary data file: " + size + ", at most " + MAX_POINTS
+					+ " are supported");
+			return;
+		}
+		Path target = Paths.get(filePath).toAbsolutePath();
+		Path temporary = null;
+		try {
+			temporary = ExportFiles.createTemporaryFile(target);
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				channel.position(HEADER_SIZE);
+				int flags = FLAG_SORTED | FLAG_STRICTLY_SORTED;
+				for (int i = 0; i < size; i++) {
+					double x = data.getX(i);
+					if (i > 0) {
+						double previous = data.getX(i - 1);
+						if (!(previous <= x)) {
+							flags = 0;
+						} else if (previous == x) {
+							flags &= ~FLAG_STRICTLY_SORTED;
+						}
+					}
+					block.putDouble(x);
+					if (!block.hasRemaining() && !writeBlock(channel, block, i + 1, 2L * size, monitor)) {
+						return;
+					}
+				}
+				for (int i = 0; i < size; i++) {
+					block.putDouble(data.getY(i));
+					if (!block.hasRemaining() && !writeBlock(channel, block, size + i + 1, 2L * size, monitor)) {
+						return;
+					}
+				}
+				if (!writeBlock(channel, block, 2L * size, 2L * size, monitor)) {
+					return;
+				}
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				header.put(MAGIC).putInt(VERSION).putInt(flags).putLong(size).flip();
+				channel.position(0);
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+			}
+			ExportFiles.replace(temporary, target);
+		} catch (ClosedByInterruptException e) {
+			// the thread was interrupted to cancel the export
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		} finally {
+			ExportFiles.delete(temporary);
+		}
+	}
+
+	private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && channel.read(header) >= 0) {
+		}
+		if (header.hasRemaining()) {
+			throw new IOException("Not a binary data file, the header is incomplete");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header.get(i) != MAGIC[i]) {
+				throw new IOException("Not a binary data file, the magic bytes are wrong");
+			}
+		}
+		int version = header.getInt(MAGIC.length);
+		if (version != VERSION) {
+			throw new IOException("Unsupported version of a binary data file: " + version);
+		}
+		long size = header.getLong(MAGIC.length + 2 * Integer.BYTES);
+		if (size < 0 || size > MAX_POINTS) {
+			throw new IOException("Unsupported number of points in a binary data file: " + size);
+		}
+		if (channel.size() < HEADER_SIZE + 2 * size * Double.BYTES) {
+			throw new IOException("The binary data file is shorter than its header says");
+		}
+		return header;
+	}
+
+	/**
+	 * Maps a column and registers the mapping. The double buffer and all its slices refer to the mapping, so it is not
+	 * garbage-collected before them.
+	 */
+	private static DoubleBuffer mapColumn(FileChannel channel, Path file, long position, long length)
+			throws IOException {
+		MappedByteBuffer mapping = channel.map(MapMode.READ_ONLY, position, length);
+		synchronized (MAPPINGS) {
+			List<WeakReference<MappedByteBuffer>> mappings = MAPPINGS.get(file);
+			if (mappings == null) {
+				mappings = new ArrayList<>();
+				MAPPINGS.put(file, mappings);
+			}
+			mappings.add(new WeakReference<>(mapping));
+		}
+		return mapping.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+
+	/**
+	 * Writes the values in the block to the channel and clears the block.
+	 *
+	 * @return {@code false} if the monitor is cancelled
+	 */
+	private static boolean writeBlock(FileChannel channel, ByteBuffer block, long written, long total,
+			ProgressMonitor monitor) throws IOException {
+		block.flip();
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+		if (monitor.isCancelled()) {
+			return false;
+		}
+		monitor.updateProgress(written, total);
+		return true;
+	}
+}
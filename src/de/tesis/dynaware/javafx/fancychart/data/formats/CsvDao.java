@@ -7,65 +7,186 @@
  */
 package de.tesis.dynaware.javafx.fancychart.data.formats;
 
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.NumberFormat;
-import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Locale;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
-import au.com.bytecode.opencsv.CSVReader;
-import au.com.bytecode.opencsv.CSVWriter;
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+import de.tesis.dynaware.javafx.fancychart.data.ProgressMonitor;
 
 public class CsvDao {
 
-	private static final Locale LOCALE = Locale.US;
-	private static CSVReader reader;
-	private static CSVWriter writer;
+	/**
+	 * The delimiter that is used if no other is given.
+	 */
+	public static final char DEFAULT_DELIMITER = ',';
 
-	public static SortedMap<Number, Number> importCsv(String filePath) {
-		try {
-			reader = new CSVReader(new FileReader(filePath));
-			List<String[]> entries = reader.readAll();
-			SortedMap<Number, Number> data = new TreeMap<>();
+	/**
+	 * The number of rows after which the progress is reported.
+	 */
+	private static final int PROGRESS_INTERVAL = 1024;
 
-			for (String[] line : entries) {
-				if (line.length == 2) {
-					Number x = NumberFormat.getNumberInstance(LOCALE).parse(line[0]);
-					Number y = NumberFormat.getNumberInstance(LOCALE).parse(line[1]);
-					data.put(x, y);
-				}
-			}
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+	private static final int MAX_ROW_LENGTH = 2 * DoubleFormatter.MAX_LENGTH + 2;
 
-			reader.close();
-			return data;
-		} catch (IOException | ParseException e) {
+	/**
+	 * Imports the rows of a comma-separated file that have two numeric columns.
+	 * 
+	 * @see #importCsv(String, char, int, ProgressMonitor)
+	 */
+	public static DataColumns importCsv(String filePath, ProgressMonitor monitor) {
+		return importCsv(filePath, DEFAULT_DELIMITER, 0, monitor);
+	}
+
+	/**
+	 * Imports the rows of a CSV file that have two numeric columns, in the order of the file. The file is parsed while
+	 * it is read, so only the parsed values are kept in memory. Rows that do not consist of two numbers are skipped.
+	 * If the monitor is cancelled, the rows read so far are returned.
+	 * 
+	 * @param filePath
+	 *            the path of the file
+	 * @param delimiter
+	 *            the character between the columns
+	 * @param headerLines
+	 *            the number of lines at the beginning of the file that are skipped
+	 * @param monitor
+	 *            the monitor that receives the number of bytes read
+	 * @return the imported points
+	 */
+	public static DataColumns importCsv(String filePath, char delimiter, int headerLines, ProgressMonitor monitor) {
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			return new CsvParser(delimiter, headerLines).parse(channel, channel.size(), monitor);
+		} catch (ClosedByInterruptException e) {
+			// the thread was interrupted to cancel the import
+		} catch (IOException e) {
 			System.err.println(e.getMessage());
 		}
-		return Collections.emptySortedMap();
+		return new DataColumns();
 	}
 
-	public static void exportCsv(SortedMap<Number, Number> data, String filePath) {
+	/**
+	 * Imports the rows of a CSV stream like {@link #importCsv(String, char, int, ProgressMonitor)}, e.g. of a resource
+	 * on the class path. The stream is not closed.
+	 * 
+	 * @param input
+	 *            the stream to read from
+	 * @param delimiter
+	 *            the character between the columns
+	 * @param headerLines
+	 *            the number of lines at the beginning of the stream that are skipped
+	 * @param monitor
+	 *            the monitor that receives the number of bytes read
+	 * @return the imported points
+	 */
+	public static DataColumns importCsv(InputStream input, char delimiter, int headerLines, ProgressMonitor monitor) {
 		try {
-			writer = new CSVWriter(new FileWriter(filePath), ',', '\0');
+			return new CsvParser(delimiter, headerLines).parse(Channels.newChannel(input), -1, monitor);
+		} catch (ClosedByInterruptException e) {
+			// the thread was interrupted to cancel the import
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return new DataColumns();
+	}
 
-			List<String[]> entries = new ArrayList<>(data.size());
-			for (Number x : data.keySet()) {
-				String xString = String.valueOf(x);
-				String yString = String.valueOf(data.get(x));
-				entries.add(new String[] { xString, yString });
-			}
+	/**
+	 * Imports the rows of a CSV file like {@link #importCsv(String, char, int, ProgressMonitor)}, but parses large
+	 * files on all available cores. The file is memory-mapped and split at line breaks into chunks, which are parsed in
+	 * parallel and merged in order. Small files are parsed by a single thread.
+	 * 
+	 * @param filePath
+	 *            the path of the file
+	 * @param delimiter
+	 *            the character between the columns
+	 * @param headerLines
+	 *            the number of lines at the beginning of the file that are skipped
+	 * @param monitor
+	 *            the monitor that receives the number of bytes read, possibly from several threads at once
+	 * @return the imported points
+	 */
+	public static DataColumns importCsvParallel(String filePath, char delimiter, int headerLines,
+			ProgressMonitor monitor) {
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			return new ParallelCsvParser(delimiter, headerLines, parallelism).parse(channel, monitor);
+		} catch (ClosedByInterruptException e) {
+			// the thread was interrupted to cancel the import
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return new DataColumns();
+	}
 
-			writer.writeAll(entries);
-			writer.flush();
-			writer.close();
+	/**
+	 * Exports the points of a data set to a comma-separated file.
+	 * 
+	 * @see #exportCsv(DataSeries, String, char, ProgressMonitor)
+	 */
+	public static void exportCsv(DataSeries data, String filePath, ProgressMonitor monitor) {
+		exportCsv(data, filePath, DEFAULT_DELIMITER, monitor);
+	}
+
+	/**
+	 * Exports the points of a data set to a CSV file, in the order of the data set. The rows are written straight from
+	 * the data set into a reusable buffer that is flushed whenever it is full, so the export needs the same small amount
+	 * of memory for any number of points. Values are written with the fewest digits that parse back to the same double.
+	 * The file is written next to the target and then moved over it, so if the monitor is cancelled, the export stops
+	 * and the previous file is kept.
+	 * 
+	 * @param data
+	 *            the data set to export, which must not change during the export
+	 * @param filePath
+	 *            the path of the file
+	 * @param delimiter
+	 *            the character between the columns, which must be an ASCII character
+	 * @param monitor
+	 *            the monitor that receives the number of rows written
+	 */
+	public static void exportCsv(DataSeries data, String filePath, char delimiter, ProgressMonitor monitor) {
+		if (delimiter > 127) {
+			throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+		}
+		Path target = Paths.get(filePath).toAbsolutePath();
+		Path temporary = null;
+		try {
+			temporary = ExportFiles.createTemporaryFile(target);
+			try (FileOutputStream output = new FileOutputStream(temporary.toFile())) {
+				byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+				int position = 0;
+				int size = data.size();
+
+				for (int row = 0; row < size; row++) {
+					if (position > buffer.length - MAX_ROW_LENGTH) {
+						output.write(buffer, 0, position);
+						position = 0;
+					}
+					position = DoubleFormatter.format(data.getX(row), buffer, position);
+					buffer[position++] = (byte) delimiter;
+					position = DoubleFormatter.format(data.getY(row), buffer, position);
+					buffer[position++] = '\n';
+
+					if ((row + 1) % PROGRESS_INTERVAL == 0) {
+						if (monitor.isCancelled()) {
+							return;
+						}
+						monitor.updateProgress(row + 1, size);
+					}
+				}
+				output.write(buffer, 0, position);
+				monitor.updateProgress(size, size);
+			}
+			ExportFiles.replace(temporary, target);
 		} catch (IOException e) {
 			System.err.println(e.getMessage());
+		} finally {
+			ExportFiles.delete(temporary);
 		}
 	}
 }
@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data.formats;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns;
+import de.tesis.dynaware.javafx.fancychart.data.ProgressMonitor;
+
+/**
+ * Parses CSV files with two numeric columns straight from their bytes into {@link DataColumns}.
+ *
+ * <p>
+ * The parser neither creates strings nor boxes values. Numbers are read with US-locale semantics, i.e. with a point as
+ * decimal separator and an optional comma as grouping separator in the integer part, which is only accepted if the
+ * comma is not the delimiter or the field is quoted. Fields may be quoted and surrounded by blanks. Rows that do not
+ * consist of exactly two numbers, such as headers, are skipped.
+ * </p>
+ *
+ * <p>
+ * Numbers are converted with the fast path of Clinger or the algorithm of Eisel and Lemire, which both give the same
+ * result as {@link Double#parseDouble(String)}. The rare numbers they cannot decide, e.g. ones with more than 19
+ * significant digits, are handed to {@link Double#parseDouble(String)}.
+ * </p>
+ *
+ * <p>
+ * A parser keeps state while parsing and must only be used by one thread at a time.
+ * </p>
+ */
+class CsvParser {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The maximum number of significant digits that fit into the unsigned 64-bit mantissa.
+	 */
+	private static final int MAX_DIGITS = 19;
+
+	/**
+	 * Exponents beyond this are handed to the fallback, which turns them into zero or infinity.
+	 */
+	private static final int MAX_EXPONENT_VALUE = 100000;
+
+	/**
+	 * The largest mantissa and power of ten that are exact doubles.
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final int MAX_EXACT_POWER = 22;
+	private static final double[] EXACT_POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private static final byte[] NAN = { 'N', 'a', 'N' };
+	private static final byte[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+
+	private static final int MIN_POWER = -348;
+	private static final int MAX_POWER = 347;
+
+	/**
+	 * The powers of ten from 10^-348 to 10^347 as 128-bit mantissas rounded down, split into their high and low halves.
+	 */
+	private static final long[] POWER_HIGH_BITS = new long[MAX_POWER - MIN_POWER + 1];
+	private static final long[] POWER_LOW_BITS = new long[MAX_POWER - MIN_POWER + 1];
+
+	static {
+		final BigInteger low64Bits = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		for (int power = MIN_POWER; power <= MAX_POWER; power++) {
+			final BigInteger powerOfTen = BigInteger.TEN.pow(Math.abs(power));
+			final int bitLength = powerOfTen.bitLength();
+			final BigInteger mantissa;
+			if (power >= 0) {
+				mantissa = bitLength > 128 ? powerOfTen.shiftRight(bitLength - 128) : powerOfTen
+						.shiftLeft(128 - bitLength);
+			} else {
+				mantissa = BigInteger.ONE.shiftLeft(127 + bitLength).divide(powerOfTen);
+			}
+			POWER_HIGH_BITS[power - MIN_POWER] = mantissa.shiftRight(64).longValue();
+			POWER_LOW_BITS[power - MIN_POWER] = mantissa.and(low64Bits).longValue();
+		}
+	}
+
+	private final byte delimiter;
+	private int headerLinesToSkip;
+
+	// the value of the last parsed number
+	private double value;
+	private char[] fallbackChars = new char[32];
+
+	/**
+	 * Creates a new parser.
+	 *
+	 * @param delimiter
+	 *            the character between the two columns, which must be an ASCII character other than a quote or a line
+	 *            break
+	 * @param headerLines
+	 *            the number of lines at the beginning of the file that are skipped
+	 */
+	CsvParser(final char delimiter, final int headerLines) {
+		if (delimiter > 127 || delimiter == '"' || delimiter == '\n' || delimiter == '\r') {
+			throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+		}
+		this.delimiter = (byte) delimiter;
+		this.headerLinesToSkip = headerLines;
+	}
+
+	/**
+	 * Parses all rows of a channel. If the monitor is cancelled, the rows parsed so far are returned.
+	 *
+	 * @param channel
+	 *            the channel to read from
+	 * @param totalBytes
+	 *            the number of bytes in the channel for the progress, or -1 if it is not known
+	 * @param monitor
+	 *            the monitor that receives the number of bytes read
+	 * @return the parsed points
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	DataColumns parse(final ReadableByteChannel channel, final long totalBytes, final ProgressMonitor monitor)
+			throws IOException {
+		final DataColumns columns = new DataColumns();
+		byte[] bytes = new byte[BUFFER_SIZE];
+		int filled = 0;
+		long bytesRead = 0;
+		boolean firstChunk = true;
+		boolean endOfInput = false;
+
+		while (!endOfInput) {
+			if (filled == bytes.length) {
+				// a single line is longer than the buffer
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			}
+			final int read = channel.read(ByteBuffer.wrap(bytes, filled, bytes.length - filled));
+			if (read < 0) {
+				endOfInput = true;
+			} else {
+				filled += read;
+				bytesRead += read;
+			}
+
+			int from = 0;
+			if (firstChunk && filled >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB
+					&& bytes[2] == (byte) 0xBF) {
+				// skip the byte order mark of UTF-8 files
+				from = 3;
+			}
+			firstChunk = false;
+
+			final int end = endOfInput ? filled : findLastLineEnd(bytes, from, filled);
+			parseLines(bytes, from, end, columns);
+			System.arraycopy(bytes, end, bytes, 0, filled - end);
+			filled -= end;
+
+			if (monitor.isCancelled()) {
+				break;
+			}
+			monitor.updateProgress(bytesRead, totalBytes);
+		}
+		return columns;
+	}
+
+	/**
+	 * Parses the lines in the given range, which must end with a complete line.
+	 *
+	 * @param bytes
+	 *            the bytes to parse
+	 * @param from
+	 *            the index of the first byte of the first line
+	 * @param to
+	 *            the index after the last byte of the last line
+	 * @param columns
+	 *            the buffer the points are added to
+	 */
+	void parseLines(final byte[] bytes, final int from, final int to, final DataColumns columns) {
+		int position = from;
+		while (position < to) {
+			if (headerLinesToSkip > 0) {
+				headerLinesToSkip--;
+				position = skipLine(bytes, position, to);
+			} else {
+				position = parseLine(bytes, position, to, columns);
+			}
+		}
+	}
+
+	/**
+	 * Parses a number that fills the given range, e.g. the value of a cell of another format, without allocating like
+	 * {@link Double#parseDouble(String)} does.
+	 *
+	 * @param bytes
+	 *            the bytes to parse
+	 * @param from
+	 *            the index of the first byte of the number
+	 * @param to
+	 *            the index after the last byte of the number
+	 * @return the number, or {@link Double#NaN} if the range is not a number
+	 */
+	double parseValue(final byte[] bytes, final int from, final int to) {
+		return parseNumber(bytes, from, to, false) == to ? value : Double.NaN;
+	}
+
+	/**
+	 * Returns the index after the last line break in the range, or the start of the range if there is none. A carriage
+	 * return at the very end is not counted, since a line feed may follow it.
+	 */
+	private static int findLastLineEnd(final byte[] bytes, final int from, final int to) {
+		if (to > from && bytes[to - 1] == '\n') {
+			return to;
+		}
+		for (int i = to - 2; i >= from; i--) {
+			if (bytes[i] == '\n' || bytes[i] == '\r') {
+				return i + 1;
+			}
+		}
+		return from;
+	}
+
+	private int parseLine(final byte[] bytes, final int lineStart, final int to, final DataColumns columns) {
+		int position = parseField(bytes, lineStart, to);
+		if (position < 0 || position >= to || bytes[position] != delimiter) {
+			return skipLine(bytes, lineStart, to);
+		}
+		final double x = value;
+
+		position = parseField(bytes, position + 1, to);
+		if (position < 0 || position < to && bytes[position] != '\n' && bytes[position] != '\r') {
+			return skipLine(bytes, lineStart, to);
+		}
+		columns.add(x, value);
+		return skipLineBreak(bytes, position, to);
+	}
+
+	/**
+	 * Parses an optionally quoted number surrounded by blanks. Returns the index after the field, or -1 if the field is
+	 * not a number.
+	 */
+	private int parseField(final byte[] bytes, final int from, final int to) {
+		int position = skipBlanks(bytes, from, to);
+		if (position < to && bytes[position] == '"') {
+			position = parseNumber(bytes, position + 1, to, true);
+			if (position < 0 || position >= to || bytes[position] != '"') {
+				return -1;
+			}
+			position++;
+		} else {
+			position = parseNumber(bytes, position, to, delimiter != ',');
+			if (position < 0) {
+				return -1;
+			}
+		}
+		return skipBlanks(bytes, position, to);
+	}
+
+	private int skipBlanks(final byte[] bytes, final int from, final int to) {
+		int position = from;
+		while (position < to && (bytes[position] == ' ' || bytes[position] == '\t') && bytes[position] != delimiter) {
+			position++;
+		}
+		return position;
+	}
+
+	private static int skipLine(final byte[] bytes, final int from, final int to) {
+		int position = from;
+		while (position < to && bytes[position] != '\n' && bytes[position] != '\r') {
+			position++;
+		}
+		return skipLineBreak(bytes, position, to);
+	}
+
+	private static int skipLineBreak(final byte[] bytes, final int from, final int to) {
+		int position = from;
+		if (position < to && bytes[position] == '\r') {
+			position++;
+		}
+		if (position < to && bytes[position] == '\n') {
+			position++;
+		}
+		return position;
+	}
+
+	/**
+	 * Parses a number and stores it in {@link #value}. Returns the index after the number, or -1 if there is no number.
+	 */
+	private int parseNumber(final byte[] bytes, final int from, final int to, final boolean allowGrouping) {
+		int position = from;
+		boolean negative = false;
+		if (position < to && (bytes[position] == '-' || bytes[position] == '+')) {
+			negative = bytes[position] == '-';
+			position++;
+		}
+
+		// the number is mantissa * 10^exponent, where the mantissa is an unsigned 64-bit value
+		long mantissa = 0;
+		final int integerStart = position;
+		boolean grouped = false;
+		while (position < to) {
+			final int digit = bytes[position] - '0';
+			if (digit >= 0 && digit <= 9) {
+				mantissa = mantissa * 10 + digit;
+			} else if (bytes[position] == ',' && allowGrouping && position > integerStart) {
+				grouped = true;
+			} else {
+				break;
+			}
+			position++;
+		}
+		int digits = position - integerStart;
+
+		int fractionDigits = 0;
+		if (position < to && bytes[position] == '.') {
+			position++;
+			final int fractionStart = position;
+			while (position < to) {
+				final int digit = bytes[position] - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				mantissa = mantissa * 10 + digit;
+				position++;
+			}
+			fractionDigits = position - fractionStart;
+			digits += fractionDigits;
+		}
+		if (digits == 0) {
+			return parseSpecialValue(bytes, position, to, negative);
+		}
+
+		int exponent = -fractionDigits;
+		if (position < to && (bytes[position] == 'e' || bytes[position] == 'E')) {
+			position++;
+			boolean negativeExponent = false;
+			if (position < to && (bytes[position] == '-' || bytes[position] == '+')) {
+				negativeExponent = bytes[position] == '-';
+				position++;
+			}
+			final int exponentStart = position;
+			int exponentValue = 0;
+			while (position < to && bytes[position] >= '0' && bytes[position] <= '9') {
+				if (exponentValue < MAX_EXPONENT_VALUE) {
+					exponentValue = exponentValue * 10 + bytes[position] - '0';
+				}
+				position++;
+			}
+			if (position == exponentStart) {
+				return -1;
+			}
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+
+		if (digits > MAX_DIGITS) {
+			// leading zeros do not count, only digits that could have overflowed the mantissa
+			digits -= countLeadingZeros(bytes, integerStart, position);
+		}
+		value = digits > MAX_DIGITS || grouped ? Double.NaN : toDouble(mantissa, exponent, negative);
+		if (Double.isNaN(value)) {
+			value = parseFallback(bytes, from, position);
+		}
+		return position;
+	}
+
+	/**
+	 * Parses the missing value and infinity as written by {@link Double#toString(double)}, so that exported data sets
+	 * can be read again. Returns the index after the value, or -1 if there is none.
+	 */
+	private int parseSpecialValue(final byte[] bytes, final int from, final int to, final boolean negative) {
+		if (matches(bytes, from, to, NAN)) {
+			value = Double.NaN;
+			return from + NAN.length;
+		} else if (matches(bytes, from, to, INFINITY)) {
+			value = negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+			return from + INFINITY.length;
+		}
+		return -1;
+	}
+
+	private static boolean matches(final byte[] bytes, final int from, final int to, final byte[] expected) {
+		if (to - from < expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			if (bytes[from + i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int countLeadingZeros(final byte[] bytes, final int from, final int to) {
+		int zeros = 0;
+		for (int i = from; i < to && (bytes[i] == '0' || bytes[i] == '.'); i++) {
+			if (bytes[i] == '0') {
+				zeros++;
+			}
+		}
+		return zeros;
+	}
+
+	/**
+	 * Converts mantissa * 10^exponent to the closest double with the algorithm of Eisel and Lemire. Returns NaN if the
+	 * algorithm cannot decide the result.
+	 */
+	private static double toDouble(final long mantissa, final int exponent, final boolean negative) {
+		if (mantissa == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+		if (mantissa >= 0 && mantissa <= MAX_EXACT_MANTISSA && exponent >= -MAX_EXACT_POWER
+				&& exponent <= MAX_EXACT_POWER) {
+			// both the mantissa and the power are exact doubles, so a single rounding gives the closest double
+			final double result = exponent < 0 ? mantissa / EXACT_POWERS[-exponent] : mantissa
+					* EXACT_POWERS[exponent];
+			return negative ? -result : result;
+		}
+		if (exponent < MIN_POWER || exponent > MAX_POWER) {
+			return Double.NaN;
+		}
+
+		final int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+		final long normalized = mantissa << leadingZeros;
+		long resultExponent = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+
+		final int powerIndex = exponent - MIN_POWER;
+		long high = multiplyHigh(normalized, POWER_HIGH_BITS[powerIndex]);
+		long low = normalized * POWER_HIGH_BITS[powerIndex];
+
+		if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + normalized, normalized) < 0) {
+			// the product may be off by the truncated lower half of the power, so include it
+			final long lowerHigh = multiplyHigh(normalized, POWER_LOW_BITS[powerIndex]);
+			final long lowerLow = normalized * POWER_LOW_BITS[powerIndex];
+			long mergedHigh = high;
+			final long mergedLow = low + lowerHigh;
+			if (Long.compareUnsigned(mergedLow, low) < 0) {
+				mergedHigh++;
+			}
+			if ((mergedHigh & 0x1FF) == 0x1FF && mergedLow + 1 == 0
+					&& Long.compareUnsigned(lowerLow + normalized, normalized) < 0) {
+				return Double.NaN;
+			}
+			high = mergedHigh;
+			low = mergedLow;
+		}
+
+		final long mostSignificantBit = high >>> 63;
+		long resultMantissa = high >>> (int) (mostSignificantBit + 9);
+		resultExponent -= 1 ^ mostSignificantBit;
+
+		if (low == 0 && (high & 0x1FF) == 0 && (resultMantissa & 3) == 1) {
+			// exactly half-way between two doubles
+			return Double.NaN;
+		}
+
+		resultMantissa += resultMantissa & 1;
+		resultMantissa >>>= 1;
+		if (resultMantissa >>> 53 > 0) {
+			resultMantissa >>>= 1;
+			resultExponent++;
+		}
+		if (resultExponent <= 0 || resultExponent >= 0x7FF) {
+			// subnormal or infinite
+			return Double.NaN;
+		}
+
+		long bits = resultExponent << 52 | resultMantissa & 0x000FFFFFFFFFFFFFL;
+		if (negative) {
+			bits |= 0x8000000000000000L;
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * Returns the upper 64 bits of the unsigned 128-bit product of two unsigned 64-bit values.
+	 */
+	private static long multiplyHigh(final long a, final long b) {
+		final long aLow = a & 0xFFFFFFFFL;
+		final long aHigh = a >>> 32;
+		final long bLow = b & 0xFFFFFFFFL;
+		final long bHigh = b >>> 32;
+		final long cross = (aLow * bLow >>> 32) + (aHigh * bLow & 0xFFFFFFFFL) + aLow * bHigh;
+		return aHigh * bHigh + (aHigh * bLow >>> 32) + (cross >>> 32);
+	}
+
+	private double parseFallback(final byte[] bytes, final int from, final int to) {
+		if (fallbackChars.length < to - from) {
+			fallbackChars = new char[to - from];
+		}
+		int length = 0;
+		for (int i = from; i < to; i++) {
+			if (bytes[i] != ',') {
+				fallbackChars[length++] = (char) bytes[i];
+			}
+		}
+		return Double.parseDouble(new String(fallbackChars, 0, length));
+	}
+}
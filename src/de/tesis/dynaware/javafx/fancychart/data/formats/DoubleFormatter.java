@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data.formats;
+
+import java.math.BigInteger;
+
+/**
+ * Writes doubles as text into byte arrays without allocating.
+ *
+ * <p>
+ * The digits are the shortest ones that parse back to the same double, and of those the closest to the exact value.
+ * They are computed with the Ryu algorithm of Ulf Adams. The layout is the one of {@link Double#toString(double)}:
+ * values from 10^-3 up to 10^7 are written as decimals like {@code 0.25} or {@code 100.0}, all others in scientific
+ * notation like {@code 1.5E-7}.
+ * </p>
+ */
+final class DoubleFormatter {
+
+	/**
+	 * The maximum number of bytes that a single value can take.
+	 */
+	static final int MAX_LENGTH = 25;
+
+	private static final int MANTISSA_BITS = 52;
+	private static final int EXPONENT_BITS = 11;
+	private static final int EXPONENT_BIAS = 1023;
+
+	private static final int POW5_BIT_COUNT = 125;
+	private static final int POW5_INV_BIT_COUNT = 125;
+	private static final int POW5_TABLE_SIZE = 326;
+	private static final int POW5_INV_TABLE_SIZE = 342;
+
+	/**
+	 * The powers of five with 125 significant bits, split into their high and low halves.
+	 */
+	private static final long[] POW5_HIGH = new long[POW5_TABLE_SIZE];
+	private static final long[] POW5_LOW = new long[POW5_TABLE_SIZE];
+
+	/**
+	 * The inverses of the powers of five with 125 significant bits rounded up, split into their high and low halves.
+	 */
+	private static final long[] POW5_INV_HIGH = new long[POW5_INV_TABLE_SIZE];
+	private static final long[] POW5_INV_LOW = new long[POW5_INV_TABLE_SIZE];
+
+	/**
+	 * The tens and ones digits of the numbers from 0 to 99.
+	 */
+	private static final byte[] DIGIT_TENS = new byte[100];
+	private static final byte[] DIGIT_ONES = new byte[100];
+
+	private static final long[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000 };
+
+	private static final byte[] NAN = { 'N', 'a', 'N' };
+	private static final byte[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+
+	static {
+		for (int i = 0; i < 100; i++) {
+			DIGIT_TENS[i] = (byte) ('0' + i / 10);
+			DIGIT_ONES[i] = (byte) ('0' + i % 10);
+		}
+
+		final BigInteger low64Bits = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		for (int i = 0; i < POW5_INV_TABLE_SIZE; i++) {
+			final BigInteger power = BigInteger.valueOf(5).pow(i);
+			final int bitLength = power.bitLength();
+			if (i < POW5_TABLE_SIZE) {
+				final int shift = bitLength - POW5_BIT_COUNT;
+				final BigInteger value = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+				POW5_HIGH[i] = value.shiftRight(64).longValue();
+				POW5_LOW[i] = value.and(low64Bits).longValue();
+			}
+			final BigInteger inverse = BigInteger.ONE.shiftLeft(bitLength - 1 + POW5_INV_BIT_COUNT).divide(power)
+					.add(BigInteger.ONE);
+			POW5_INV_HIGH[i] = inverse.shiftRight(64).longValue();
+			POW5_INV_LOW[i] = inverse.and(low64Bits).longValue();
+		}
+	}
+
+	private DoubleFormatter() {
+	}
+
+	/**
+	 * Writes a double into a byte array.
+	 *
+	 * @param value
+	 *            the value to write
+	 * @param bytes
+	 *            the array to write into, which must have at least {@link #MAX_LENGTH} bytes left
+	 * @param offset
+	 *            the index of the first byte to write
+	 * @return the index after the last written byte
+	 */
+	static int format(final double value, final byte[] bytes, final int offset) {
+		final long bits = Double.doubleToRawLongBits(value);
+		final long ieeeMantissa = bits & ((1L << MANTISSA_BITS) - 1);
+		final int ieeeExponent = (int) (bits >>> MANTISSA_BITS) & ((1 << EXPONENT_BITS) - 1);
+		int position = offset;
+
+		if (ieeeExponent == (1 << EXPONENT_BITS) - 1) {
+			if (ieeeMantissa != 0) {
+				return copy(NAN, bytes, position);
+			}
+			if (bits < 0) {
+				bytes[position++] = '-';
+			}
+			return copy(INFINITY, bytes, position);
+		}
+		if (bits < 0) {
+			bytes[position++] = '-';
+		}
+		if (ieeeExponent == 0 && ieeeMantissa == 0) {
+			bytes[position++] = '0';
+			bytes[position++] = '.';
+			bytes[position++] = '0';
+			return position;
+		}
+
+		// the value is output * 10^exponent, where output has the fewest digits that still round-trip
+		final int e2;
+		final long m2;
+		if (ieeeExponent == 0) {
+			e2 = 1 - EXPONENT_BIAS - MANTISSA_BITS - 2;
+			m2 = ieeeMantissa;
+		} else {
+			e2 = ieeeExponent - EXPONENT_BIAS - MANTISSA_BITS - 2;
+			m2 = (1L << MANTISSA_BITS) | ieeeMantissa;
+		}
+		final boolean acceptBounds = (m2 & 1) == 0;
+
+		// the interval of values that round to this double is (mm, mp) around mv, all scaled by 4
+		final long mv = 4 * m2;
+		final long mp = 4 * m2 + 2;
+		final int mmShift = ieeeMantissa != 0 || ieeeExponent <= 1 ? 1 : 0;
+		final long mm = 4 * m2 - 1 - mmShift;
+
+		long vr;
+		long vp;
+		long vm;
+		final int e10;
+		boolean vmIsTrailingZeros = false;
+		boolean vrIsTrailingZeros = false;
+		if (e2 >= 0) {
+			final int q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+			e10 = q;
+			final int k = POW5_INV_BIT_COUNT + pow5Bits(q) - 1;
+			final int i = -e2 + q + k;
+			vr = multiplyShift(mv, POW5_INV_HIGH[q], POW5_INV_LOW[q], i);
+			vp = multiplyShift(mp, POW5_INV_HIGH[q], POW5_INV_LOW[q], i);
+			vm = multiplyShift(mm, POW5_INV_HIGH[q], POW5_INV_LOW[q], i);
+			if (q <= 21) {
+				// only one of mp, mv and mm can be a multiple of 5, if any
+				if (mv % 5 == 0) {
+					vrIsTrailingZeros = isMultipleOfPowerOf5(mv, q);
+				} else if (acceptBounds) {
+					vmIsTrailingZeros = isMultipleOfPowerOf5(mm, q);
+				} else if (isMultipleOfPowerOf5(mp, q)) {
+					vp--;
+				}
+			}
+		} else {
+			final int q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+			e10 = q + e2;
+			final int i = -e2 - q;
+			final int k = pow5Bits(i) - POW5_BIT_COUNT;
+			final int j = q - k;
+			vr = multiplyShift(mv, POW5_HIGH[i], POW5_LOW[i], j);
+			vp = multiplyShift(mp, POW5_HIGH[i], POW5_LOW[i], j);
+			vm = multiplyShift(mm, POW5_HIGH[i], POW5_LOW[i], j);
+			if (q <= 1) {
+				// mv = 4 * m2 always has at least two trailing zero bits
+				vrIsTrailingZeros = true;
+				if (acceptBounds) {
+					vmIsTrailingZeros = mmShift == 1;
+				} else {
+					vp--;
+				}
+			} else if (q < 63) {
+				vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+			}
+		}
+
+		// remove digits as long as the shortened interval still contains a value
+		int removed = 0;
+		int lastRemovedDigit = 0;
+		long output;
+		if (vmIsTrailingZeros || vrIsTrailingZeros) {
+			while (vp / 10 > vm / 10) {
+				vmIsTrailingZeros &= vm % 10 == 0;
+				vrIsTrailingZeros &= lastRemovedDigit == 0;
+				lastRemovedDigit = (int) (vr % 10);
+				vr /= 10;
+				vp /= 10;
+				vm /= 10;
+				removed++;
+			}
+			if (vmIsTrailingZeros) {
+				while (vm % 10 == 0) {
+					vrIsTrailingZeros &= lastRemovedDigit == 0;
+					lastRemovedDigit = (int) (vr % 10);
+					vr /= 10;
+					vp /= 10;
+					vm /= 10;
+					removed++;
+				}
+			}
+			if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+				// round half to even
+				lastRemovedDigit = 4;
+			}
+			output = vr;
+			if (vr == vm && (!acceptBounds || !vmIsTrailingZeros) || lastRemovedDigit >= 5) {
+				output++;
+			}
+		} else {
+			// remove eight, four, two and one digits at a time, only the last removed digit decides the rounding
+			boolean roundUp = false;
+			for (int digits = 8; digits > 0; digits >>= 1) {
+				final long divisor = POWERS_OF_TEN[digits];
+				long vpQuotient = vp / divisor;
+				long vmQuotient = vm / divisor;
+				while (vpQuotient > vmQuotient) {
+					final long vrQuotient = vr / divisor;
+					roundUp = vr - vrQuotient * divisor >= divisor >> 1;
+					vr = vrQuotient;
+					vp = vpQuotient;
+					vm = vmQuotient;
+					removed += digits;
+					if (digits < 8) {
+						// a smaller step can only be taken once, since two of them would have been a larger one
+						break;
+					}
+					vpQuotient = vp / divisor;
+					vmQuotient = vm / divisor;
+				}
+			}
+			output = vr;
+			if (vr == vm || roundUp) {
+				output++;
+			}
+		}
+
+		return writeDigits(output, e10 + removed, bytes, position);
+	}
+
+	/**
+	 * Writes output * 10^exponent in the layout of {@link Double#toString(double)}.
+	 */
+	private static int writeDigits(final long output, final int exponent, final byte[] bytes, final int offset) {
+		final int length = decimalLength(output);
+		final int scientificExponent = exponent + length - 1;
+		int position = offset;
+
+		if (scientificExponent >= -3 && scientificExponent < 7) {
+			if (scientificExponent < 0) {
+				bytes[position++] = '0';
+				bytes[position++] = '.';
+				for (int i = -1; i > scientificExponent; i--) {
+					bytes[position++] = '0';
+				}
+				writeNumber(output, length, bytes, position);
+				return position + length;
+			}
+			final int integerLength = scientificExponent + 1;
+			if (length <= integerLength) {
+				writeNumber(output, length, bytes, position);
+				position += length;
+				for (int i = length; i < integerLength; i++) {
+					bytes[position++] = '0';
+				}
+				bytes[position++] = '.';
+				bytes[position++] = '0';
+				return position;
+			}
+			// write all digits one position to the right, then move the integer part to the left of the point
+			writeNumber(output, length, bytes, position + 1);
+			System.arraycopy(bytes, position + 1, bytes, position, integerLength);
+			bytes[position + integerLength] = '.';
+			return position + length + 1;
+		}
+
+		writeNumber(output, length, bytes, position + 1);
+		bytes[position] = bytes[position + 1];
+		bytes[position + 1] = '.';
+		position += length + 1;
+		if (length == 1) {
+			bytes[position++] = '0';
+		}
+		bytes[position++] = 'E';
+		int absoluteExponent = scientificExponent;
+		if (absoluteExponent < 0) {
+			bytes[position++] = '-';
+			absoluteExponent = -absoluteExponent;
+		}
+		final int exponentLength = absoluteExponent >= 100 ? 3 : absoluteExponent >= 10 ? 2 : 1;
+		writeNumber(absoluteExponent, exponentLength, bytes, position);
+		return position + exponentLength;
+	}
+
+	private static void writeNumber(final long value, final int length, final byte[] bytes, final int offset) {
+		int position = offset + length;
+		long remaining = value;
+		while (remaining > Integer.MAX_VALUE) {
+			final long quotient = remaining / 100;
+			final int pair = (int) (remaining - quotient * 100);
+			bytes[--position] = DIGIT_ONES[pair];
+			bytes[--position] = DIGIT_TENS[pair];
+			remaining = quotient;
+		}
+		int small = (int) remaining;
+		while (small >= 100) {
+			final int quotient = small / 100;
+			final int pair = small - quotient * 100;
+			bytes[--position] = DIGIT_ONES[pair];
+			bytes[--position] = DIGIT_TENS[pair];
+			small = quotient;
+		}
+		if (small >= 10) {
+			bytes[--position] = DIGIT_ONES[small];
+			bytes[--position] = DIGIT_TENS[small];
+		} else {
+			bytes[--position] = (byte) ('0' + small);
+		}
+	}
+
+	private static int copy(final byte[] source, final byte[] bytes, final int offset) {
+		System.arraycopy(source, 0, bytes, offset, source.length);
+		return offset + source.length;
+	}
+
+	private static int decimalLength(final long value) {
+		int length = 1;
+		long limit = 10;
+		while (length < 19 && value >= limit) {
+			length++;
+			limit *= 10;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns (m * (high * 2^64 + low)) >> shift for a shift of more than 64 bits.
+	 */
+	private static long multiplyShift(final long m, final long high, final long low, final int shift) {
+		final long highProductHigh = multiplyHigh(m, high);
+		final long highProductLow = m * high;
+		final long lowProductHigh = multiplyHigh(m, low);
+		final long sum = lowProductHigh + highProductLow;
+		final long carry = Long.compareUnsigned(sum, lowProductHigh) < 0 ? 1 : 0;
+		final int distance = shift - 64;
+		return (highProductHigh + carry) << (64 - distance) | sum >>> distance;
+	}
+
+	/**
+	 * Returns the upper 64 bits of the unsigned 128-bit product of two unsigned 64-bit values.
+	 */
+	private static long multiplyHigh(final long a, final long b) {
+		final long aLow = a & 0xFFFFFFFFL;
+		final long aHigh = a >>> 32;
+		final long bLow = b & 0xFFFFFFFFL;
+		final long bHigh = b >>> 32;
+		final long cross = (aLow * bLow >>> 32) + (aHigh * bLow & 0xFFFFFFFFL) + aLow * bHigh;
+		return aHigh * bHigh + (aHigh * bLow >>> 32) + (cross >>> 32);
+	}
+
+	private static boolean isMultipleOfPowerOf5(long value, final int power) {
+		int count = 0;
+		while (value > 0 && value % 5 == 0) {
+			value /= 5;
+			count++;
+		}
+		return count >= power;
+	}
+
+	/**
+	 * Returns the number of bits of 5^e.
+	 */
+	private static int pow5Bits(final int e) {
+		return (int) ((e * 1217359L) >>> 19) + 1;
+	}
+
+	private static int log10Pow2(final int e) {
+		return (int) ((e * 78913L) >>> 18);
+	}
+
+	private static int log10Pow5(final int e) {
+		return (int) ((e * 732923L) >>> 20);
+	}
+}
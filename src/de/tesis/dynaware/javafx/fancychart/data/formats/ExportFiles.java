@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data.formats;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Lets exports write next to their target and move the file over it once it is complete, so an export that is
+ * cancelled or fails keeps the previous file.
+ */
+final class ExportFiles {
+
+	private ExportFiles() {
+	}
+
+	/**
+	 * Creates an empty file in the directory of the target, so that it can be moved over the target.
+	 */
+	static Path createTemporaryFile(Path target) throws IOException {
+		return Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+	}
+
+	/**
+	 * Moves a complete file over the target. The move is atomic where the file system supports it.
+	 */
+	static void replace(Path temporary, Path target) throws IOException {
+		try {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes a temporary file that was not moved over its target, if there is one.
+	 */
+	static void delete(Path temporary) {
+		if (temporary != null) {
+			temporary.toFile().delete();
+		}
+	}
+}
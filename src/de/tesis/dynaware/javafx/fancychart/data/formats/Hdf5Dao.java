@@ -7,64 +7,408 @@
  */
 package de.tesis.dynaware.javafx.fancychart.data.formats;
 
-import java.util.Iterator;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import ch.systemsx.cisd.hdf5.HDF5Factory;
-import ch.systemsx.cisd.hdf5.IHDF5SimpleReader;
-import ch.systemsx.cisd.hdf5.IHDF5SimpleWriter;
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+import de.tesis.dynaware.javafx.fancychart.data.ProgressMonitor;
+import de.tesis.dynaware.javafx.fancychart.data.SeriesMetadata;
 
 public class Hdf5Dao {
 
+	/**
+	 * The number of points that are read or written at once if no other is given.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * The number of values in each compressed chunk of the matrix. A multiple of it is a good block size for reading.
+	 */
+	public static final int CHUNK_SIZE = 1 << 16;
+
 	private static final String DATA_ID = "xy";
-	private static IHDF5SimpleWriter writer;
-	private static IHDF5SimpleReader reader;
 
-	public static SortedMap<Number, Number> importHdf5(String filePath) {
+	/**
+	 * The groups and attributes of a workspace file, which holds one group with an {@code xy} matrix per data set.
+	 */
+	private static final String ROOT_GROUP = "/";
+	private static final String SERIES_GROUP_PREFIX = "series";
+	private static final String SERIES_COUNT_ATTRIBUTE = "seriesCount";
+	private static final String NAME_ATTRIBUTE = "name";
+	private static final String COLOR_ATTRIBUTE = "color";
+	private static final String SIZE_ATTRIBUTE = "size";
+	private static final String MIN_X_ATTRIBUTE = "minX";
+	private static final String MAX_X_ATTRIBUTE = "maxX";
+	private static final String MIN_Y_ATTRIBUTE = "minY";
+	private static final String MAX_Y_ATTRIBUTE = "maxY";
+
+	/**
+	 * The largest number of points that fit into the primitive buffers.
+	 */
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	public static DataColumns importHdf5(String filePath) {
+		return importHdf5(filePath, ProgressMonitor.NONE);
+	}
+
+	/**
+	 * Imports all points of the {@code xy} matrix of an HDF5 file.
+	 * 
+	 * @see #importHdf5(String, long, long, int, ProgressMonitor)
+	 */
+	public static DataColumns importHdf5(String filePath, ProgressMonitor monitor) {
+		return importHdf5(filePath, 0, Long.MAX_VALUE, DEFAULT_BLOCK_SIZE, monitor);
+	}
+
+	/**
+	 * Returns the number of points in the {@code xy} matrix of an HDF5 file without reading them.
+	 * 
+	 * @param filePath
+	 *            the path of the file
+	 * @return the number of columns of the matrix
+	 */
+	public static long getSize(String filePath) {
+		IHDF5Reader reader = HDF5Factory.openForReading(filePath);
+		try {
+			return getSize(reader, DATA_ID);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Imports the points in a range of indices of the {@code xy} matrix of an HDF5 file, in the order of the file. The
+	 * matrix is read in blocks of columns straight into primitive buffers, so apart from the imported points only one
+	 * block is in memory. If the monitor is cancelled, the points read so far are returned.
+	 * 
+	 * @param filePath
+	 *            the path of the file
+	 * @param fromIndex
+	 *            the index of the first point to import
+	 * @param toIndex
+	 *            the index after the last point to import, which may be larger than the number of points
+	 * @param blockSize
+	 *            the number of points that are read at once
+	 * @param monitor
+	 *            the monitor that receives the number of points read
+	 * @return the imported points
+	 */
+	public static DataColumns importHdf5(String filePath, long fromIndex, long toIndex, int blockSize,
+			ProgressMonitor monitor) {
+
+		IHDF5Reader reader = HDF5Factory.openForReading(filePath);
+		try {
+			return readMatrix(reader, DATA_ID, fromIndex, toIndex, blockSize, monitor);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Imports the points of the {@code xy} matrix of an HDF5 file whose x value lies in a range, in the order of the
+	 * file. The x values are read in blocks, and the y values are only read for blocks that contain points in the
+	 * range, so apart from the imported points only one block is in memory. The x values need not be sorted. If the
+	 * monitor is cancelled, the points found so far are returned.
+	 * 
+	 * @param filePath
+	 *            the path of the file
+	 * @param minX
+	 *            the smallest x value to import
+	 * @param maxX
+	 *            the largest x value to import
+	 * @param blockSize
+	 *            the number of points that are read at once
+	 * @param monitor
+	 *            the monitor that receives the number of points searched
+	 * @return the imported points
+	 */
+	public static DataColumns importHdf5InRange(String filePath, double minX, double maxX, int blockSize,
+			ProgressMonitor monitor) {
 
-		reader = HDF5Factory.openForReading(filePath);
-		double[][] hdf5Data = reader.readDoubleMatrix(DATA_ID);
+		IHDF5Reader reader = HDF5Factory.openForReading(filePath);
+		try {
+			long size = getSize(reader, DATA_ID);
+			DataColumns data = new DataColumns();
 
-		SortedMap<Number, Number> data = new TreeMap<>();
-		for (int i = 0; i < hdf5Data[0].length; i++) {
-			double x = hdf5Data[0][i];
-			double y = hdf5Data[1][i];
-			Number key = new Double(x);
-			Number value = new Double(y);
-			data.put(key, value);
+			for (long offset = 0; offset < size && !monitor.isCancelled(); offset += blockSize) {
+				int length = (int) Math.min(blockSize, size - offset);
+				double[] xValues = reader.float64().readMatrixBlockWithOffset(DATA_ID, 1, length, 0, offset)[0];
+
+				int first = -1;
+				int last = -1;
+				for (int i = 0; i < length; i++) {
+					if (xValues[i] >= minX && xValues[i] <= maxX) {
+						if (first < 0) {
+							first = i;
+						}
+						last = i;
+					}
+				}
+
+				if (first >= 0) {
+					double[] yValues = reader.float64().readMatrixBlockWithOffset(DATA_ID, 1, last - first + 1, 1,
+							offset + first)[0];
+					for (int i = first; i <= last; i++) {
+						if (xValues[i] >= minX && xValues[i] <= maxX) {
+							data.add(xValues[i], yValues[i - first]);
+						}
+					}
+				}
+				monitor.updateProgress(offset + length, size);
+			}
+			return data;
+		} finally {
+			reader.close();
 		}
+	}
 
+	/**
+	 * Reads a range of columns of an xy matrix in blocks.
+	 */
+	private static DataColumns readMatrix(IHDF5Reader reader, String dataPath, long fromIndex, long toIndex,
+			int blockSize, ProgressMonitor monitor) {
+		long from = Math.max(fromIndex, 0);
+		long to = Math.min(toIndex, getSize(reader, dataPath));
+		DataColumns data = new DataColumns(toCapacity(to - from));
+
+		for (long offset = from; offset < to && !monitor.isCancelled(); offset += blockSize) {
+			int length = (int) Math.min(blockSize, to - offset);
+			double[][] block = reader.float64().readMatrixBlockWithOffset(dataPath, 2, length, 0, offset);
+			for (int i = 0; i < length; i++) {
+				data.add(block[0][i], block[1][i]);
+			}
+			monitor.updateProgress(offset + length - from, to - from);
+		}
 		return data;
 	}
 
-	public static void exportHdf5(SortedMap<Number, Number> data, String filePath) {
+	private static long getSize(IHDF5Reader reader, String dataPath) {
+		long[] dimensions = reader.object().getDataSetInformation(dataPath).getDimensions();
+		return dimensions[1];
+	}
+
+	private static int toCapacity(long size) {
+		return (int) Math.min(Math.max(size, 0), MAX_CAPACITY);
+	}
+
+	public static void exportHdf5(DataSeries data, String filePath) {
+		exportHdf5(data, filePath, ProgressMonitor.NONE);
+	}
+
+	/**
+	 * Exports the points of a data set as an {@code xy} matrix to an HDF5 file, in the order of the data set. The
+	 * matrix is stored in deflate-compressed chunks that hold the x or the y values of {@link #CHUNK_SIZE} points, so
+	 * ranges of points or only the x values can be read later without decompressing the rest. The points are copied
+	 * block by block into a reusable buffer, so the export needs the same amount of memory for any number of points. The
+	 * file is written next to the target and then moved over it, so the target is only replaced by a complete file. If
+	 * the monitor is cancelled, the export stops before the target is replaced.
+	 * 
+	 * @param data
+	 *            the data set to export, which must not change during the export
+	 * @param filePath
+	 *            the path of the file
+	 * @param monitor
+	 *            the monitor that receives the number of points written
+	 */
+	public static void exportHdf5(DataSeries data, String filePath, ProgressMonitor monitor) {
+
+		Path target = Paths.get(filePath).toAbsolutePath();
+		Path temporary = null;
+		try {
+			temporary = createTemporaryFile(target);
+			IHDF5Writer writer = HDF5Factory.open(temporary.toString());
+			try {
+				writeMatrix(writer, DATA_ID, data, monitor);
+			} finally {
+				writer.close();
+			}
+			if (!monitor.isCancelled()) {
+				ExportFiles.replace(temporary, target);
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		} finally {
+			ExportFiles.delete(temporary);
+		}
+	}
 
-		writer = HDF5Factory.open(filePath);
-		int size = data.keySet().size();
-		double[][] dataArray = new double[2][size];
+	/**
+	 * Imports the metadata of all data sets in a workspace file, without reading their points.
+	 * 
+	 * @param filePath
+	 *            the path of the workspace file
+	 * @return the metadata of the data sets, in the order of the workspace
+	 */
+	public static List<SeriesMetadata> importWorkspaceMetadata(String filePath) {
 
-		int counter = 0;
-		Iterator<Number> iter = data.keySet().iterator();
-		while (iter.hasNext()) {
-			Number x = iter.next();
-			Number y = data.get(x);
-			if (x instanceof Double) {
-				dataArray[0][counter] = ((Double) x).doubleValue();
-			} else if (x instanceof Long) {
-				dataArray[0][counter] = ((Long) x).doubleValue();
+		IHDF5Reader reader = HDF5Factory.openForReading(filePath);
+		try {
+			int seriesCount = (int) reader.int64().getAttr(ROOT_GROUP, SERIES_COUNT_ATTRIBUTE);
+			List<SeriesMetadata> metadata = new ArrayList<>(seriesCount);
+			for (int i = 0; i < seriesCount; i++) {
+				String group = getSeriesGroup(i);
+				String name = reader.string().getAttr(group, NAME_ATTRIBUTE);
+				String color = reader.string().getAttr(group, COLOR_ATTRIBUTE);
+				int size = (int) reader.int64().getAttr(group, SIZE_ATTRIBUTE);
+				double minX = reader.float64().getAttr(group, MIN_X_ATTRIBUTE);
+				double maxX = reader.float64().getAttr(group, MAX_X_ATTRIBUTE);
+				double minY = reader.float64().getAttr(group, MIN_Y_ATTRIBUTE);
+				double maxY = reader.float64().getAttr(group, MAX_Y_ATTRIBUTE);
+				metadata.add(new SeriesMetadata(name, color, size, minX, maxX, minY, maxY));
 			}
+			return metadata;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Imports the points of one data set of a workspace file, like {@link #importHdf5(String, ProgressMonitor)} does.
+	 * 
+	 * @param filePath
+	 *            the path of the workspace file
+	 * @param seriesIndex
+	 *            the index of the data set in the workspace
+	 * @param monitor
+	 *            the monitor that receives the number of points read
+	 * @return the imported points
+	 */
+	public static DataColumns importWorkspaceSeries(String filePath, int seriesIndex, ProgressMonitor monitor) {
 
-			if (y instanceof Double) {
-				dataArray[1][counter] = ((Double) y).doubleValue();
-			} else if (y instanceof Long) {
-				dataArray[1][counter] = ((Long) y).doubleValue();
+		IHDF5Reader reader = HDF5Factory.openForReading(filePath);
+		try {
+			return readMatrix(reader, getSeriesGroup(seriesIndex) + "/" + DATA_ID, 0, Long.MAX_VALUE,
+					DEFAULT_BLOCK_SIZE, monitor);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Exports several data sets to a workspace file. Each data set is stored in a group of its own, with its metadata
+	 * as attributes of the group and its points in an {@code xy} matrix like {@link #exportHdf5(DataSeries, String)}
+	 * writes it, so the metadata of all data sets can be read without reading their points. Like that export, the file
+	 * is written next to the target and then moved over it. If the monitor is cancelled, the export stops before the
+	 * target is replaced.
+	 * 
+	 * @param metadata
+	 *            the metadata of the data sets
+	 * @param dataSeries
+	 *            the data sets, which must not change during the export
+	 * @param filePath
+	 *            the path of the workspace file
+	 * @param monitor
+	 *            the monitor that receives the number of points written
+	 */
+	public static void exportWorkspace(List<SeriesMetadata> metadata, List<DataSeries> dataSeries, String filePath,
+			ProgressMonitor monitor) {
+
+		long totalSize = 0;
+		for (DataSeries data : dataSeries) {
+			totalSize += data.size();
+		}
+
+		Path target = Paths.get(filePath).toAbsolutePath();
+		Path temporary = null;
+		try {
+			temporary = createTemporaryFile(target);
+			IHDF5Writer writer = HDF5Factory.open(temporary.toString());
+			try {
+				writer.int64().setAttr(ROOT_GROUP, SERIES_COUNT_ATTRIBUTE, dataSeries.size());
+				long pointsWritten = 0;
+				for (int i = 0; i < dataSeries.size() && !monitor.isCancelled(); i++) {
+					String group = getSeriesGroup(i);
+					SeriesMetadata seriesMetadata = metadata.get(i);
+					writer.object().createGroup(group);
+					writer.string().setAttr(group, NAME_ATTRIBUTE, seriesMetadata.getName());
+					writer.string().setAttr(group, COLOR_ATTRIBUTE, seriesMetadata.getColor());
+					writer.int64().setAttr(group, SIZE_ATTRIBUTE, seriesMetadata.getSize());
+					writer.float64().setAttr(group, MIN_X_ATTRIBUTE, seriesMetadata.getMinX());
+					writer.float64().setAttr(group, MAX_X_ATTRIBUTE, seriesMetadata.getMaxX());
+					writer.float64().setAttr(group, MIN_Y_ATTRIBUTE, seriesMetadata.getMinY());
+					writer.float64().setAttr(group, MAX_Y_ATTRIBUTE, seriesMetadata.getMaxY());
+
+					writeMatrix(writer, group + "/" + DATA_ID, dataSeries.get(i),
+							createOffsetMonitor(monitor, pointsWritten, totalSize));
+					pointsWritten += dataSeries.get(i).size();
+				}
+			} finally {
+				writer.close();
+			}
+			if (!monitor.isCancelled()) {
+				ExportFiles.replace(temporary, target);
 			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		} finally {
+			ExportFiles.delete(temporary);
+		}
+	}
+
+	/**
+	 * Reserves the path of a new file next to the target, in the same directory so that it can be moved over the
+	 * target. The file itself is deleted again, because an empty file cannot be opened as an HDF5 file.
+	 */
+	private static Path createTemporaryFile(Path target) throws IOException {
+		Path temporary = ExportFiles.createTemporaryFile(target);
+		Files.delete(temporary);
+		return temporary;
+	}
+
+	/**
+	 * Writes the points of a data set block by block into a chunked, compressed xy matrix.
+	 */
+	private static void writeMatrix(IHDF5Writer writer, String dataPath, DataSeries data, ProgressMonitor monitor) {
 
-			counter++;
+		int size = data.size();
+		int chunkSize = Math.max(1, Math.min(CHUNK_SIZE, size));
+		double[][] block = new double[2][Math.min(DEFAULT_BLOCK_SIZE, size)];
+
+		writer.float64().createMatrix(dataPath, 2, size, 1, chunkSize, HDF5FloatStorageFeatures.FLOAT_DEFLATE);
+
+		for (int offset = 0; offset < size && !monitor.isCancelled(); offset += block[0].length) {
+			int length = Math.min(block[0].length, size - offset);
+			if (length < block[0].length) {
+				block = new double[2][length];
+			}
+			for (int i = 0; i < length; i++) {
+				block[0][i] = data.getX(offset + i);
+				block[1][i] = data.getY(offset + i);
+			}
+			writer.float64().writeMatrixBlockWithOffset(dataPath, block, 0, offset);
+			monitor.updateProgress(offset + length, size);
 		}
-		writer.writeDoubleMatrix(DATA_ID, dataArray);
-		writer.close();
+	}
+
+	private static String getSeriesGroup(int seriesIndex) {
+		return ROOT_GROUP + SERIES_GROUP_PREFIX + seriesIndex;
+	}
+
+	/**
+	 * Creates a monitor that reports the progress of a part of the work as progress of the whole work.
+	 */
+	private static ProgressMonitor createOffsetMonitor(final ProgressMonitor monitor, final long workBefore,
+			final long totalWork) {
+		return new ProgressMonitor() {
 
+			@Override
+			public void updateProgress(long workDone, long partWork) {
+				monitor.updateProgress(workBefore + workDone, totalWork);
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return monitor.isCancelled();
+			}
+		};
 	}
 }
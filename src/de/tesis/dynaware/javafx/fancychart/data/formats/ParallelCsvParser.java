@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data.formats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns;
+import de.tesis.dynaware.javafx.fancychart.data.ProgressMonitor;
+
+/**
+ * Parses a large CSV file on several cores.
+ *
+ * <p>
+ * The file is split at line breaks into chunks, which are memory-mapped and parsed in parallel on a
+ * {@link ForkJoinPool} by {@link CsvParser}s of their own. The points of the chunks are merged in the order of the
+ * chunks, so the result is the same as that of a single parser.
+ * </p>
+ */
+class ParallelCsvParser {
+
+	/**
+	 * Files with fewer bytes than two chunks of the minimum size are parsed by a single parser.
+	 */
+	private static final long MIN_CHUNK_SIZE = 4 << 20;
+	private static final long MAX_CHUNK_SIZE = 256 << 20;
+
+	/**
+	 * The number of chunks per thread, so that threads that finish early can take over work.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static final int SCAN_BUFFER_SIZE = 64 << 10;
+
+	private final char delimiter;
+	private final int headerLines;
+	private final int parallelism;
+
+	/**
+	 * Creates a new parser.
+	 *
+	 * @param delimiter
+	 *            the character between the two columns
+	 * @param headerLines
+	 *            the number of lines at the beginning of the file that are skipped
+	 * @param parallelism
+	 *            the number of threads to parse with
+	 */
+	ParallelCsvParser(final char delimiter, final int headerLines, final int parallelism) {
+		this.delimiter = delimiter;
+		this.headerLines = headerLines;
+		this.parallelism = Math.max(parallelism, 1);
+	}
+
+	/**
+	 * Parses all rows of a file. If the monitor is cancelled, the rows parsed so far are returned.
+	 *
+	 * @param channel
+	 *            the channel of the file
+	 * @param monitor
+	 *            the monitor that receives the number of bytes read
+	 * @return the parsed points in the order of the file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	DataColumns parse(final FileChannel channel, final ProgressMonitor monitor) throws IOException {
+		final long size = channel.size();
+		if (parallelism == 1 || size < 2 * MIN_CHUNK_SIZE) {
+			return new CsvParser(delimiter, headerLines).parse(channel, size, monitor);
+		}
+
+		final List<ChunkTask> chunks = createChunks(channel, size, monitor);
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new RecursiveTask<Void>() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected Void compute() {
+					invokeAll(chunks);
+					return null;
+				}
+			});
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+
+		int totalSize = 0;
+		for (final ChunkTask chunk : chunks) {
+			totalSize += chunk.getRawResult().size();
+		}
+		final DataColumns columns = new DataColumns(totalSize);
+		for (final ChunkTask chunk : chunks) {
+			columns.addAll(chunk.getRawResult());
+		}
+		return columns;
+	}
+
+	/**
+	 * Splits the file behind the header lines into chunks that start at the beginning of a line.
+	 */
+	private List<ChunkTask> createChunks(final FileChannel channel, final long size, final ProgressMonitor monitor)
+			throws IOException {
+		final long chunkSize = Math.max(MIN_CHUNK_SIZE,
+				Math.min(MAX_CHUNK_SIZE, size / (parallelism * CHUNKS_PER_THREAD)));
+		final AtomicLong bytesRead = new AtomicLong();
+		final List<ChunkTask> chunks = new ArrayList<>();
+
+		long start = 0;
+		for (int i = 0; i < headerLines; i++) {
+			start = findNextLine(channel, start, size);
+		}
+		bytesRead.addAndGet(start);
+
+		while (start < size) {
+			final long end = findNextLine(channel, Math.min(start + chunkSize, size), size);
+			chunks.add(new ChunkTask(channel, start, end - start, bytesRead, size, monitor));
+			start = end;
+		}
+		return chunks;
+	}
+
+	/**
+	 * Returns the position after the next line break at or after the given position, or the size if there is none.
+	 */
+	private static long findNextLine(final FileChannel channel, final long from, final long size) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		long position = from;
+		while (position < size) {
+			buffer.clear();
+			final int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				final byte b = buffer.get(i);
+				if (b == '\n') {
+					return position + i + 1;
+				} else if (b == '\r') {
+					// a line feed that follows belongs to the same line break
+					if (i + 1 < read) {
+						return buffer.get(i + 1) == '\n' ? position + i + 2 : position + i + 1;
+					}
+					buffer.clear();
+					buffer.limit(1);
+					final boolean lineFeed = channel.read(buffer, position + i + 1) == 1 && buffer.get(0) == '\n';
+					return lineFeed ? position + i + 2 : position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Parses one chunk of the file.
+	 */
+	private class ChunkTask extends RecursiveTask<DataColumns> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long start;
+		private final long length;
+		private final AtomicLong totalBytesRead;
+		private final long totalBytes;
+		private final ProgressMonitor monitor;
+
+		ChunkTask(final FileChannel channel, final long start, final long length, final AtomicLong totalBytesRead,
+				final long totalBytes, final ProgressMonitor monitor) {
+			this.channel = channel;
+			this.start = start;
+			this.length = length;
+			this.totalBytesRead = totalBytesRead;
+			this.totalBytes = totalBytes;
+			this.monitor = monitor;
+		}
+
+		@Override
+		protected DataColumns compute() {
+			try {
+				final ByteBuffer mapping = channel.map(MapMode.READ_ONLY, start, length);
+				return new CsvParser(delimiter, 0).parse(createChannel(mapping), length, new ProgressMonitor() {
+
+					private long chunkBytesRead;
+
+					@Override
+					public void updateProgress(final long workDone, final long totalWork) {
+						final long bytesRead = totalBytesRead.addAndGet(workDone - chunkBytesRead);
+						chunkBytesRead = workDone;
+						monitor.updateProgress(bytesRead, totalBytes);
+					}
+
+					@Override
+					public boolean isCancelled() {
+						return monitor.isCancelled();
+					}
+				});
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Creates a channel that reads the remaining bytes of a buffer.
+	 */
+	private static ReadableByteChannel createChannel(final ByteBuffer buffer) {
+		return new ReadableByteChannel() {
+
+			@Override
+			public int read(final ByteBuffer target) {
+				if (!buffer.hasRemaining()) {
+					return -1;
+				}
+				final int length = Math.min(target.remaining(), buffer.remaining());
+				final ByteBuffer slice = buffer.duplicate();
+				slice.limit(slice.position() + length);
+				target.put(slice);
+				buffer.position(buffer.position() + length);
+				return length;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+}
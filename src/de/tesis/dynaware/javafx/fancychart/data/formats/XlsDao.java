@@ -9,14 +9,12 @@ package de.tesis.dynaware.javafx.fancychart.data.formats;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.ParseException;
-import java.util.Collections;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Locale;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import jxl.Cell;
-import jxl.CellType;
+import jxl.NumberCell;
 import jxl.Sheet;
 import jxl.Workbook;
 import jxl.WorkbookSettings;
@@ -27,7 +25,9 @@ import jxl.write.WritableCellFormat;
 import jxl.write.WritableSheet;
 import jxl.write.WritableWorkbook;
 import jxl.write.WriteException;
-import jxl.write.biff.RowsExceededException;
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+import de.tesis.dynaware.javafx.fancychart.data.ProgressMonitor;
 
 public class XlsDao {
 
@@ -37,76 +37,154 @@ public class XlsDao {
 	 */
 	private static final Locale LOCALE = Locale.getDefault();
 
-	public static SortedMap<java.lang.Number, java.lang.Number> importXls(String filePath) {
+	/**
+	 * The number of rows after which the progress is reported.
+	 */
+	private static final int PROGRESS_INTERVAL = 1024;
+
+	/**
+	 * The number of rows of a sheet in the XLS format. Longer data sets continue on the following sheets.
+	 */
+	private static final int MAX_ROWS_PER_SHEET = 65536;
 
-		File inputWorkbook = new File(filePath);
+	private static final String SHEET_NAME = "Exported data";
+	private static final String NUMBER_PATTERN = "0.###############";
+
+	public static DataColumns importXls(String filePath) {
+		return importXls(filePath, ProgressMonitor.NONE);
+	}
+
+	/**
+	 * Imports the rows of the first sheet of an XLS file whose first two cells are numbers, in the order of the sheet,
+	 * reporting the number of rows read. If the sheet is full, the rows continue on the following sheets, as written by
+	 * {@link #exportXls(DataSeries, String, ProgressMonitor)}. The values are taken from the cells as doubles, so they keep their full
+	 * precision whatever the format of the cells shows. The workbook is closed as soon as the values are copied into
+	 * primitive buffers, so its cell model can be collected while the data set is built. If the monitor is cancelled,
+	 * the rows read so far are returned.
+	 */
+	public static DataColumns importXls(String filePath, ProgressMonitor monitor) {
+
+		Workbook workbook = null;
 		try {
-			Workbook w = Workbook.getWorkbook(inputWorkbook);
-			// Get the first sheet
-			Sheet sheet = w.getSheet(0);
-
-			SortedMap<java.lang.Number, java.lang.Number> data = new TreeMap<>();
-			for (int i = 0; i < sheet.getRows(); i++) {
-				Cell xCell = sheet.getCell(0, i);
-				Cell yCell = sheet.getCell(1, i);
-				CellType xType = xCell.getType();
-				CellType yType = yCell.getType();
-				if (CellType.NUMBER.equals(xType) && CellType.NUMBER.equals(yType)) {
-					java.lang.Number key = java.text.NumberFormat.getNumberInstance(LOCALE).parse(xCell.getContents());
-					java.lang.Number value = java.text.NumberFormat.getNumberInstance(LOCALE)
-							.parse(yCell.getContents());
-					data.put(key, value);
+			workbook = Workbook.getWorkbook(new File(filePath), createReadSettings());
+			// a full sheet is continued on the next one
+			int sheetCount = 1;
+			while (sheetCount < workbook.getNumberOfSheets()
+					&& workbook.getSheet(sheetCount - 1).getRows() == MAX_ROWS_PER_SHEET) {
+				sheetCount++;
+			}
+			int rows = 0;
+			for (int i = 0; i < sheetCount; i++) {
+				rows += workbook.getSheet(i).getRows();
+			}
+
+			DataColumns data = new DataColumns(rows);
+			int rowsRead = 0;
+			for (int i = 0; i < sheetCount && !monitor.isCancelled(); i++) {
+				Sheet sheet = workbook.getSheet(i);
+				for (int j = 0; j < sheet.getRows(); j++) {
+					Cell[] row = sheet.getRow(j);
+					if (row.length >= 2 && row[0] instanceof NumberCell && row[1] instanceof NumberCell) {
+						data.add(((NumberCell) row[0]).getValue(), ((NumberCell) row[1]).getValue());
+					}
+					if (++rowsRead % PROGRESS_INTERVAL == 0) {
+						if (monitor.isCancelled()) {
+							break;
+						}
+						monitor.updateProgress(rowsRead, rows);
+					}
 				}
 			}
+			monitor.updateProgress(rows, rows);
 			return data;
-		} catch (BiffException | IOException | ParseException exception) {
+		} catch (BiffException | IOException exception) {
 			exception.printStackTrace();
+		} finally {
+			if (workbook != null) {
+				workbook.close();
+			}
 		}
 
-		return Collections.emptySortedMap();
+		return new DataColumns();
 	}
 
-	public static void exportXls(SortedMap<java.lang.Number, java.lang.Number> data, String filePath) {
-		File file = new File(filePath);
+	/**
+	 * Creates settings that skip everything but the cells while a workbook is read.
+	 */
+	private static WorkbookSettings createReadSettings() {
+		WorkbookSettings settings = new WorkbookSettings();
+		settings.setLocale(LOCALE);
+		settings.setGCDisabled(true);
+		settings.setIgnoreBlanks(true);
+		settings.setDrawingsDisabled(true);
+		settings.setNamesDisabled(true);
+		settings.setCellValidationDisabled(true);
+		settings.setAutoFilterDisabled(true);
+		settings.setMergedCellChecking(false);
+		settings.setPropertySets(false);
+		settings.setSuppressWarnings(true);
+		return settings;
+	}
+
+	public static void exportXls(DataSeries data, String filePath) {
+		exportXls(data, filePath, ProgressMonitor.NONE);
+	}
+
+	/**
+	 * Exports the points of a data set to an XLS file, in the order of the data set, reporting the number of rows filled
+	 * in. All cells share one cell format. A data set with more rows than fit into a sheet continues on the following
+	 * sheets. The file is written next to the target and then moved over it, so if the monitor is cancelled, the
+	 * previous file is kept.
+	 */
+	public static void exportXls(DataSeries data, String filePath, ProgressMonitor monitor) {
+		Path target = Paths.get(filePath).toAbsolutePath();
+		Path temporary = null;
 		WorkbookSettings workBookSettings = new WorkbookSettings();
 		workBookSettings.setLocale(LOCALE);
 
 		try {
-			WritableWorkbook workbook = Workbook.createWorkbook(file, workBookSettings);
-			workbook.createSheet("Exported data", 0);
-			WritableSheet sheet = workbook.getSheet(0);
+			temporary = ExportFiles.createTemporaryFile(target);
+			WritableWorkbook workbook = Workbook.createWorkbook(temporary.toFile(), workBookSettings);
+			WritableCellFormat format = new WritableCellFormat(new NumberFormat(NUMBER_PATTERN));
 
-			fillSheet(sheet, data);
+			int sheetCount = Math.max((data.size() + MAX_ROWS_PER_SHEET - 1) / MAX_ROWS_PER_SHEET, 1);
+			for (int i = 0; i < sheetCount && !monitor.isCancelled(); i++) {
+				String name = i == 0 ? SHEET_NAME : SHEET_NAME + " " + (i + 1);
+				WritableSheet sheet = workbook.createSheet(name, i);
+				int from = i * MAX_ROWS_PER_SHEET;
+				fillSheet(sheet, data, from, Math.min(from + MAX_ROWS_PER_SHEET, data.size()), format, monitor);
+			}
 
-			workbook.write();
+			if (!monitor.isCancelled()) {
+				workbook.write();
+			}
 			workbook.close();
+			if (!monitor.isCancelled()) {
+				ExportFiles.replace(temporary, target);
+			}
 		} catch (IOException | WriteException exception) {
 			System.err.println(exception.getMessage());
+		} finally {
+			ExportFiles.delete(temporary);
 		}
 	}
 
-	private static void fillSheet(WritableSheet sheet, SortedMap<java.lang.Number, java.lang.Number> data)
-			throws WriteException, RowsExceededException {
-
-		int row = 0;
-		for (java.lang.Number x : data.keySet()) {
-			// first column
-			addNumber(sheet, 0, row, x);
-			// second column
-			addNumber(sheet, 1, row++, data.get(x));
-		}
-	}
+	/**
+	 * Fills a sheet with a range of the points of a data set, starting in the first row.
+	 */
+	private static void fillSheet(WritableSheet sheet, DataSeries data, int from, int to, WritableCellFormat format,
+			ProgressMonitor monitor) throws WriteException {
 
-	private static void addNumber(WritableSheet sheet, int col, int row, java.lang.Number value) throws WriteException,
-			RowsExceededException {
-		Number number;
-		if (value instanceof Long) {
-			number = new Number(col, row, (Long) value);
-			sheet.addCell(number);
-		} else if (value instanceof Double) {
-			WritableCellFormat format = new WritableCellFormat(new NumberFormat("0.###############"));
-			number = new Number(col, row, (Double) value, format);
-			sheet.addCell(number);
+		for (int i = from; i < to; i++) {
+			sheet.addCell(new Number(0, i - from, data.getX(i), format));
+			sheet.addCell(new Number(1, i - from, data.getY(i), format));
+			if ((i + 1) % PROGRESS_INTERVAL == 0) {
+				if (monitor.isCancelled()) {
+					return;
+				}
+				monitor.updateProgress(i + 1, data.size());
+			}
 		}
+		monitor.updateProgress(to, data.size());
 	}
 }
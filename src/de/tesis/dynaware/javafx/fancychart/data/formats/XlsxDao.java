@@ -0,0 +1,571 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.data.formats;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import de.tesis.dynaware.javafx.fancychart.data.DataColumns;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+import de.tesis.dynaware.javafx.fancychart.data.ProgressMonitor;
+
+/**
+ * Reads and writes the first two columns of Office Open XML workbooks ({@code .xlsx}).
+ *
+ * <p>
+ * A workbook is a zip file of XML parts. The sheets are read with a StAX parser while they are unzipped, and written
+ * row by row into the zip, so neither a document tree nor a whole sheet is ever held in memory. Only numeric and error
+ * cells are read, so the shared strings of a workbook are not needed.
+ * </p>
+ */
+public class XlsxDao {
+
+	/**
+	 * The number of rows after which the progress is reported.
+	 */
+	private static final int PROGRESS_INTERVAL = 1024;
+
+	/**
+	 * The number of rows of a sheet in the XLSX format. Longer data sets continue on the following sheets.
+	 */
+	private static final int MAX_ROWS_PER_SHEET = 1048576;
+
+	private static final String SHEET_NAME = "Exported data";
+
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	private static final String PACKAGE_NAMESPACE = "http://schemas.openxmlformats.org/package/2006/";
+	private static final String PACKAGE_RELATIONSHIPS_NAMESPACE = PACKAGE_NAMESPACE + "relationships";
+	private static final String CONTENT_TYPES_NAMESPACE = PACKAGE_NAMESPACE + "content-types";
+	private static final String SPREADSHEET_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+	private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/"
+			+ "relationships";
+	private static final String OFFICE_DOCUMENT_TYPE = RELATIONSHIPS_NAMESPACE + "/officeDocument";
+	private static final String WORKSHEET_TYPE = RELATIONSHIPS_NAMESPACE + "/worksheet";
+
+	private static final String CONTENT_TYPE_PREFIX = "application/vnd.openxmlformats-";
+	private static final String RELATIONSHIPS_CONTENT_TYPE = CONTENT_TYPE_PREFIX + "package.relationships+xml";
+	private static final String WORKBOOK_CONTENT_TYPE = CONTENT_TYPE_PREFIX
+			+ "officedocument.spreadsheetml.sheet.main+xml";
+	private static final String WORKSHEET_CONTENT_TYPE = CONTENT_TYPE_PREFIX
+			+ "officedocument.spreadsheetml.worksheet+xml";
+
+	private static final String CONTENT_TYPES_PATH = "[Content_Types].xml";
+	private static final String ROOT_RELATIONSHIPS_PATH = "_rels/.rels";
+	private static final String DEFAULT_WORKBOOK_PATH = "xl/workbook.xml";
+
+	private static final byte[] SHEET_START = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<worksheet xmlns=\"" + SPREADSHEET_NAMESPACE + "\"><sheetData>").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] SHEET_END = "</sheetData></worksheet>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ROW_START = "<row>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ROW_END = "</row>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] NUMBER_CELL_START = "<c><v>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] NUMBER_CELL_END = "</v></c>".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * The text of the error cells that missing and infinite values are written as, since they cannot be stored as
+	 * numbers. These cells are read back as missing values.
+	 */
+	private static final String MISSING_VALUE = "#NUM!";
+
+	private static final byte[] ERROR_CELL = ("<c t=\"e\"><v>" + MISSING_VALUE + "</v></c>")
+			.getBytes(StandardCharsets.UTF_8);
+
+	private static final int MAX_ROW_LENGTH = ROW_START.length + 2
+			* Math.max(NUMBER_CELL_START.length + DoubleFormatter.MAX_LENGTH + NUMBER_CELL_END.length,
+					ERROR_CELL.length) + ROW_END.length;
+
+	public static DataColumns importXlsx(String filePath) {
+		return importXlsx(filePath, ProgressMonitor.NONE);
+	}
+
+	/**
+	 * Imports the rows of the first sheet of an XLSX file whose first two cells are numbers, in the order of the sheet.
+	 * {@code #NUM!} error cells are read as missing values.
+	 * If the sheet is full, the rows continue on the following sheets, as written by
+	 * {@link #exportXlsx(DataSeries, String, ProgressMonitor)}. If the monitor is cancelled, the rows read so far are
+	 * returned.
+	 *
+	 * @param filePath
+	 *            the path of the file
+	 * @param monitor
+	 *            the monitor that receives the number of bytes of the sheets unzipped
+	 * @return the imported points
+	 */
+	public static DataColumns importXlsx(String filePath, ProgressMonitor monitor) {
+		try (ZipFile zipFile = new ZipFile(filePath)) {
+			List<ZipEntry> sheets = findSheets(zipFile);
+			long totalBytes = 0;
+			for (ZipEntry sheet : sheets) {
+				totalBytes = totalBytes < 0 || sheet.getSize() < 0 ? -1 : totalBytes + sheet.getSize();
+			}
+
+			DataColumns data = new DataColumns();
+			long bytesBefore = 0;
+			for (ZipEntry sheet : sheets) {
+				CountingInputStream input = new CountingInputStream(zipFile.getInputStream(sheet));
+				try {
+					int lastRow = readSheet(input, data, bytesBefore, totalBytes, monitor);
+					if (lastRow < MAX_ROWS_PER_SHEET || monitor.isCancelled()) {
+						break;
+					}
+				} finally {
+					input.close();
+				}
+				bytesBefore += input.getCount();
+			}
+			monitor.updateProgress(totalBytes, totalBytes);
+			return data;
+		} catch (IOException | XMLStreamException exception) {
+			System.err.println(exception.getMessage());
+		}
+		return new DataColumns();
+	}
+
+	public static void exportXlsx(DataSeries data, String filePath) {
+		exportXlsx(data, filePath, ProgressMonitor.NONE);
+	}
+
+	/**
+	 * Exports the points of a data set to an XLSX file, in the order of the data set. The rows are written straight
+	 * from the data set into the zip file, so the export needs the same small amount of memory for any number of
+	 * points. A data set with more rows than fit into a sheet continues on the following sheets. The file is written
+	 * next to the target and then moved over it, so if the monitor is cancelled, the export stops and the previous file
+	 * is kept.
+	 *
+	 * @param data
+	 *            the data set to export, which must not change during the export
+	 * @param filePath
+	 *            the path of the file
+	 * @param monitor
+	 *            the monitor that receives the number of rows written
+	 */
+	public static void exportXlsx(DataSeries data, String filePath, ProgressMonitor monitor) {
+		int sheetCount = Math.max((data.size() + MAX_ROWS_PER_SHEET - 1) / MAX_ROWS_PER_SHEET, 1);
+
+		Path target = Paths.get(filePath).toAbsolutePath();
+		Path temporary = null;
+		try {
+			temporary = ExportFiles.createTemporaryFile(target);
+			try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(
+					temporary.toFile())))) {
+				zip.setLevel(Deflater.BEST_SPEED);
+
+				zip.putNextEntry(new ZipEntry(CONTENT_TYPES_PATH));
+				writeContentTypes(zip, sheetCount);
+				zip.putNextEntry(new ZipEntry(ROOT_RELATIONSHIPS_PATH));
+				writeRootRelationships(zip);
+				zip.putNextEntry(new ZipEntry(DEFAULT_WORKBOOK_PATH));
+				writeWorkbook(zip, sheetCount);
+				zip.putNextEntry(new ZipEntry(getRelationshipsPath(DEFAULT_WORKBOOK_PATH)));
+				writeWorkbookRelationships(zip, sheetCount);
+
+				byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+				for (int i = 0; i < sheetCount && !monitor.isCancelled(); i++) {
+					zip.putNextEntry(new ZipEntry("xl/" + getSheetTarget(i)));
+					int from = i * MAX_ROWS_PER_SHEET;
+					writeSheet(zip, data, from, Math.min(from + MAX_ROWS_PER_SHEET, data.size()), buffer, monitor);
+				}
+				zip.closeEntry();
+			}
+			if (!monitor.isCancelled()) {
+				ExportFiles.replace(temporary, target);
+			}
+		} catch (IOException | XMLStreamException exception) {
+			System.err.println(exception.getMessage());
+		} finally {
+			ExportFiles.delete(temporary);
+		}
+	}
+
+	/**
+	 * Finds the sheets of a workbook in the order of the workbook, following the relationships of the package.
+	 */
+	private static List<ZipEntry> findSheets(ZipFile zipFile) throws IOException, XMLStreamException {
+		String workbookPath = DEFAULT_WORKBOOK_PATH;
+		Map<String, String> rootTargets = readRelationships(zipFile, ROOT_RELATIONSHIPS_PATH, "", OFFICE_DOCUMENT_TYPE);
+		if (!rootTargets.isEmpty()) {
+			workbookPath = rootTargets.values().iterator().next();
+		}
+		String workbookFolder = workbookPath.substring(0, workbookPath.lastIndexOf('/') + 1);
+		Map<String, String> sheetTargets = readRelationships(zipFile, getRelationshipsPath(workbookPath),
+				workbookFolder, WORKSHEET_TYPE);
+
+		List<ZipEntry> sheets = new ArrayList<>();
+		ZipEntry workbookEntry = zipFile.getEntry(workbookPath);
+		if (workbookEntry == null) {
+			throw new IOException("Not an XLSX file, the workbook is missing: " + zipFile.getName());
+		}
+		try (InputStream input = zipFile.getInputStream(workbookEntry)) {
+			XMLStreamReader reader = createReader(input);
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && "sheet".equals(reader.getLocalName())) {
+					String target = sheetTargets.get(reader.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id"));
+					ZipEntry sheet = target == null ? null : zipFile.getEntry(target);
+					if (sheet != null) {
+						sheets.add(sheet);
+					}
+				}
+			}
+			reader.close();
+		}
+		return sheets;
+	}
+
+	/**
+	 * Reads the targets of the relationships of a type from a relationships part, by their IDs. Relative targets are
+	 * resolved against the given folder.
+	 */
+	private static Map<String, String> readRelationships(ZipFile zipFile, String path, String folder, String type)
+			throws IOException, XMLStreamException {
+		Map<String, String> targets = new HashMap<>();
+		ZipEntry entry = zipFile.getEntry(path);
+		if (entry == null) {
+			return targets;
+		}
+		try (InputStream input = zipFile.getInputStream(entry)) {
+			XMLStreamReader reader = createReader(input);
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && "Relationship".equals(reader.getLocalName())
+						&& type.equals(reader.getAttributeValue(null, "Type"))) {
+					String target = reader.getAttributeValue(null, "Target");
+					targets.put(reader.getAttributeValue(null, "Id"),
+							target.startsWith("/") ? target.substring(1) : folder + target);
+				}
+			}
+			reader.close();
+		}
+		return targets;
+	}
+
+	/**
+	 * Reads the rows of a sheet whose first two cells are numbers or {@code #NUM!} errors. Returns the number of the last
+	 * row of the sheet.
+	 */
+	private static int readSheet(CountingInputStream input, DataColumns data, long bytesBefore, long totalBytes,
+			ProgressMonitor monitor) throws XMLStreamException {
+
+		XMLStreamReader reader = createReader(input);
+		ValueReader valueReader = new ValueReader();
+		int rowNumber = 0;
+		int column = -1;
+		boolean numeric = false;
+		boolean error = false;
+		double x = Double.NaN;
+		double y = Double.NaN;
+		boolean hasX = false;
+		boolean hasY = false;
+		int rowsRead = 0;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				if ("row".equals(name)) {
+					rowNumber = parseRowNumber(reader.getAttributeValue(null, "r"), rowNumber + 1);
+					column = -1;
+					x = Double.NaN;
+					y = Double.NaN;
+					hasX = false;
+					hasY = false;
+				} else if ("c".equals(name)) {
+					column = parseColumn(reader.getAttributeValue(null, "r"), column + 1);
+					String type = reader.getAttributeValue(null, "t");
+					numeric = type == null || "n".equals(type);
+					error = "e".equals(type);
+				} else if ("v".equals(name) && numeric && column == 0) {
+					x = valueReader.read(reader);
+					hasX = !Double.isNaN(x);
+				} else if ("v".equals(name) && numeric && column == 1) {
+					y = valueReader.read(reader);
+					hasY = !Double.isNaN(y);
+				} else if ("v".equals(name) && error && column == 0) {
+					hasX = MISSING_VALUE.equals(reader.getElementText().trim());
+				} else if ("v".equals(name) && error && column == 1) {
+					hasY = MISSING_VALUE.equals(reader.getElementText().trim());
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT && "row".equals(reader.getLocalName())) {
+				if (hasX && hasY) {
+					data.add(x, y);
+				}
+				if (++rowsRead % PROGRESS_INTERVAL == 0) {
+					if (monitor.isCancelled()) {
+						break;
+					}
+					monitor.updateProgress(bytesBefore + input.getCount(), totalBytes);
+				}
+			}
+		}
+		reader.close();
+		return rowNumber;
+	}
+
+	/**
+	 * Parses the number of a row, e.g. {@code 12}, or returns the default if there is none.
+	 */
+	private static int parseRowNumber(String reference, int defaultNumber) {
+		if (reference == null) {
+			return defaultNumber;
+		}
+		try {
+			return Integer.parseInt(reference);
+		} catch (NumberFormatException e) {
+			return defaultNumber;
+		}
+	}
+
+	/**
+	 * Parses the zero-based column of a cell reference, e.g. 1 for {@code B12}, or returns the default if there is
+	 * none.
+	 */
+	private static int parseColumn(String reference, int defaultColumn) {
+		if (reference == null) {
+			return defaultColumn;
+		}
+		int column = 0;
+		for (int i = 0; i < reference.length(); i++) {
+			char c = reference.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				column = column * 26 + c - 'A' + 1;
+			} else {
+				break;
+			}
+		}
+		return column - 1;
+	}
+
+	private static XMLStreamReader createReader(InputStream input) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory.createXMLStreamReader(input);
+	}
+
+	private static void writeSheet(OutputStream output, DataSeries data, int from, int to, byte[] buffer,
+			ProgressMonitor monitor) throws IOException {
+		output.write(SHEET_START);
+		int length = 0;
+		for (int i = from; i < to; i++) {
+			if (length > buffer.length - MAX_ROW_LENGTH) {
+				output.write(buffer, 0, length);
+				length = 0;
+			}
+			length = put(ROW_START, buffer, length);
+			length = writeCell(data.getX(i), buffer, length);
+			length = writeCell(data.getY(i), buffer, length);
+			length = put(ROW_END, buffer, length);
+
+			if ((i + 1) % PROGRESS_INTERVAL == 0) {
+				if (monitor.isCancelled()) {
+					return;
+				}
+				monitor.updateProgress(i + 1, data.size());
+			}
+		}
+		output.write(buffer, 0, length);
+		output.write(SHEET_END);
+		monitor.updateProgress(to, data.size());
+	}
+
+	private static int writeCell(double value, byte[] buffer, int offset) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return put(ERROR_CELL, buffer, offset);
+		}
+		int length = put(NUMBER_CELL_START, buffer, offset);
+		length = DoubleFormatter.format(value, buffer, length);
+		return put(NUMBER_CELL_END, buffer, length);
+	}
+
+	private static int put(byte[] bytes, byte[] buffer, int offset) {
+		System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+		return offset + bytes.length;
+	}
+
+	private static void writeContentTypes(OutputStream output, int sheetCount) throws XMLStreamException {
+		XMLStreamWriter writer = startDocument(output, "Types", CONTENT_TYPES_NAMESPACE);
+		writer.writeEmptyElement("Default");
+		writer.writeAttribute("Extension", "rels");
+		writer.writeAttribute("ContentType", RELATIONSHIPS_CONTENT_TYPE);
+		writer.writeEmptyElement("Default");
+		writer.writeAttribute("Extension", "xml");
+		writer.writeAttribute("ContentType", "application/xml");
+		writer.writeEmptyElement("Override");
+		writer.writeAttribute("PartName", "/" + DEFAULT_WORKBOOK_PATH);
+		writer.writeAttribute("ContentType", WORKBOOK_CONTENT_TYPE);
+		for (int i = 0; i < sheetCount; i++) {
+			writer.writeEmptyElement("Override");
+			writer.writeAttribute("PartName", "/xl/" + getSheetTarget(i));
+			writer.writeAttribute("ContentType", WORKSHEET_CONTENT_TYPE);
+		}
+		endDocument(writer);
+	}
+
+	private static void writeRootRelationships(OutputStream output) throws XMLStreamException {
+		XMLStreamWriter writer = startDocument(output, "Relationships", PACKAGE_RELATIONSHIPS_NAMESPACE);
+		writer.writeEmptyElement("Relationship");
+		writer.writeAttribute("Id", "rId1");
+		writer.writeAttribute("Type", OFFICE_DOCUMENT_TYPE);
+		writer.writeAttribute("Target", DEFAULT_WORKBOOK_PATH);
+		endDocument(writer);
+	}
+
+	private static void writeWorkbook(OutputStream output, int sheetCount) throws XMLStreamException {
+		XMLStreamWriter writer = startDocument(output, "workbook", SPREADSHEET_NAMESPACE);
+		writer.writeNamespace("r", RELATIONSHIPS_NAMESPACE);
+		writer.writeStartElement("sheets");
+		for (int i = 0; i < sheetCount; i++) {
+			writer.writeEmptyElement("sheet");
+			writer.writeAttribute("name", i == 0 ? SHEET_NAME : SHEET_NAME + " " + (i + 1));
+			writer.writeAttribute("sheetId", String.valueOf(i + 1));
+			writer.writeAttribute("r", RELATIONSHIPS_NAMESPACE, "id", "rId" + (i + 1));
+		}
+		writer.writeEndElement();
+		endDocument(writer);
+	}
+
+	private static void writeWorkbookRelationships(OutputStream output, int sheetCount) throws XMLStreamException {
+		XMLStreamWriter writer = startDocument(output, "Relationships", PACKAGE_RELATIONSHIPS_NAMESPACE);
+		for (int i = 0; i < sheetCount; i++) {
+			writer.writeEmptyElement("Relationship");
+			writer.writeAttribute("Id", "rId" + (i + 1));
+			writer.writeAttribute("Type", WORKSHEET_TYPE);
+			writer.writeAttribute("Target", getSheetTarget(i));
+		}
+		endDocument(writer);
+	}
+
+	/**
+	 * Starts a part with a root element in a default namespace. The writer does not close the stream.
+	 */
+	private static XMLStreamWriter startDocument(OutputStream output, String rootElement, String namespace)
+			throws XMLStreamException {
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+		writer.writeStartDocument("UTF-8", "1.0");
+		writer.writeStartElement(rootElement);
+		writer.writeDefaultNamespace(namespace);
+		return writer;
+	}
+
+	private static void endDocument(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeEndDocument();
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * Returns the path of a sheet relative to the folder of the workbook.
+	 */
+	private static String getSheetTarget(int sheetIndex) {
+		return "worksheets/sheet" + (sheetIndex + 1) + ".xml";
+	}
+
+	/**
+	 * Returns the path of the relationships part of a part, e.g. {@code xl/_rels/workbook.xml.rels}.
+	 */
+	private static String getRelationshipsPath(String partPath) {
+		int nameStart = partPath.lastIndexOf('/') + 1;
+		return partPath.substring(0, nameStart) + "_rels/" + partPath.substring(nameStart) + ".rels";
+	}
+
+	/**
+	 * Reads the text of value elements as numbers, without creating a string for each value.
+	 */
+	private static class ValueReader {
+
+		private final CsvParser parser = new CsvParser(CsvDao.DEFAULT_DELIMITER, 0);
+		private byte[] text = new byte[32];
+
+		/**
+		 * Reads the text up to the end of the current element and returns it as a number, or {@link Double#NaN} if it
+		 * is not a number.
+		 */
+		double read(XMLStreamReader reader) throws XMLStreamException {
+			int length = 0;
+			while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+				if (!reader.isCharacters()) {
+					continue;
+				}
+				char[] characters = reader.getTextCharacters();
+				int start = reader.getTextStart();
+				int end = start + reader.getTextLength();
+				if (length + end - start > text.length) {
+					text = Arrays.copyOf(text, Math.max(2 * text.length, length + end - start));
+				}
+				for (int i = start; i < end; i++) {
+					// only ASCII characters can be part of a number
+					text[length++] = characters[i] < 128 ? (byte) characters[i] : 0;
+				}
+			}
+			return parser.parseValue(text, 0, length);
+		}
+	}
+
+	/**
+	 * Counts the bytes read from a stream, for the progress of the import.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		CountingInputStream(InputStream input) {
+			super(input);
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
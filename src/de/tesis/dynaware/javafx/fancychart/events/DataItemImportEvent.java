@@ -7,11 +7,9 @@
  */
 package de.tesis.dynaware.javafx.fancychart.events;
 
-import java.util.List;
-
 import javafx.event.Event;
 import javafx.event.EventType;
-import de.tesis.dynaware.javafx.fancychart.data.DataItem;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
 
 /**
  * 
@@ -26,9 +24,9 @@ public class DataItemImportEvent extends Event {
 	public static final EventType<DataItemImportEvent> TYPE = new EventType<>("DATA_ITEMS_IMPORTED");
 
 	private final int dataSeriesIndex;
-	private final List<DataItem> importedDataItems;
+	private final DataSeries importedDataItems;
 
-	public DataItemImportEvent(final List<DataItem> importedDataItems, final int dataSeriesIndex) {
+	public DataItemImportEvent(final DataSeries importedDataItems, final int dataSeriesIndex) {
 		super(TYPE);
 		this.importedDataItems = importedDataItems;
 		this.dataSeriesIndex = dataSeriesIndex;
@@ -46,7 +44,7 @@ public class DataItemImportEvent extends Event {
 	 * 
 	 * @return
 	 */
-	public List<DataItem> getImportedDataItems() {
+	public DataSeries getImportedDataItems() {
 		return importedDataItems;
 	}
 
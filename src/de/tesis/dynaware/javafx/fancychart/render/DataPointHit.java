@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.render;
+
+/**
+ * A data point that was found at a position of the plot area of a {@link FancyLineChart}.
+ */
+public class DataPointHit {
+
+	private final int seriesIndex;
+	private final int dataItemIndex;
+
+	public DataPointHit(final int seriesIndex, final int dataItemIndex) {
+		this.seriesIndex = seriesIndex;
+		this.dataItemIndex = dataItemIndex;
+	}
+
+	/**
+	 * @return the index of the data set that contains the point
+	 */
+	public int getSeriesIndex() {
+		return seriesIndex;
+	}
+
+	/**
+	 * @return the index of the point in its data set
+	 */
+	public int getDataItemIndex() {
+		return dataItemIndex;
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.geometry.Point2D;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.paint.Color;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+
+/**
+ * A line chart whose series are fed by {@link SeriesPipeline}s and that can optionally draw its series onto a
+ * {@link SeriesCanvas} instead of creating nodes for them.
+ *
+ * <p>
+ * In canvas rendering mode the chart series stay empty, so the legend and the styling of the chart are kept, but
+ * there are no nodes per point. The canvas is placed into the plot content of the chart, below the series nodes, and
+ * covers the plot area. Since the chart series are empty, the ranges of auto-ranging axes are computed from the data
+ * sets instead.
+ * </p>
+ *
+ * <p>
+ * In both modes, the point under the mouse is found with a {@link SeriesHitGrid} per series, so the points need no
+ * mouse handlers of their own.
+ * </p>
+ */
+public class FancyLineChart extends LineChart<Number, Number> {
+
+	/**
+	 * The maximum distance in pixels between the mouse and a point that is hit.
+	 */
+	private static final double HIT_RADIUS = 5;
+
+	private final NumberAxis xAxis;
+	private final NumberAxis yAxis;
+	private final SeriesCanvas seriesCanvas;
+	private final List<SeriesPipeline> pipelines = new ArrayList<>();
+	private final List<SeriesHitGrid> hitGrids = new ArrayList<>();
+
+	private boolean canvasRendering;
+	private boolean dataRangeValid;
+
+	/**
+	 * Creates a new chart that renders its series with nodes.
+	 *
+	 * @param xAxis
+	 *            the x axis
+	 * @param yAxis
+	 *            the y axis
+	 */
+	public FancyLineChart(final NumberAxis xAxis, final NumberAxis yAxis) {
+		super(xAxis, yAxis);
+		this.xAxis = xAxis;
+		this.yAxis = yAxis;
+
+		seriesCanvas = new SeriesCanvas(xAxis, yAxis);
+		seriesCanvas.setManaged(false);
+		seriesCanvas.setVisible(false);
+		getPlotChildren().add(0, seriesCanvas);
+	}
+
+	/**
+	 * Adds the pipeline of a chart series. Pipelines have to be added in the order of the chart series.
+	 *
+	 * @param pipeline
+	 *            the pipeline of the next chart series
+	 */
+	public void addSeriesPipeline(final SeriesPipeline pipeline) {
+		pipelines.add(pipeline);
+		hitGrids.add(new SeriesHitGrid(pipeline, xAxis, yAxis, HIT_RADIUS));
+		seriesCanvas.addSeriesPipeline(pipeline);
+		pipeline.setCanvasRendering(canvasRendering);
+		pipeline.addListener(new InvalidationListener() {
+			@Override
+			public void invalidated(final Observable observable) {
+				if (canvasRendering) {
+					dataRangeValid = false;
+					requestChartLayout();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return {@code true} if the series are drawn onto a canvas
+	 */
+	public boolean isCanvasRendering() {
+		return canvasRendering;
+	}
+
+	/**
+	 * Switches between drawing the series onto a canvas and rendering them with one node per point.
+	 *
+	 * @param canvasRendering
+	 *            {@code true} if the series should be drawn onto a canvas
+	 */
+	public void setCanvasRendering(final boolean canvasRendering) {
+		if (this.canvasRendering == canvasRendering) {
+			return;
+		}
+		this.canvasRendering = canvasRendering;
+		seriesCanvas.setVisible(canvasRendering);
+		seriesCanvas.clearSelection();
+		dataRangeValid = false;
+		for (final SeriesPipeline pipeline : pipelines) {
+			pipeline.setCanvasRendering(canvasRendering);
+		}
+		requestChartLayout();
+	}
+
+	/**
+	 * @return the canvas the series are drawn onto in canvas rendering mode
+	 */
+	public SeriesCanvas getSeriesCanvas() {
+		return seriesCanvas;
+	}
+
+	/**
+	 * Sets the colour a series is drawn with in canvas rendering mode.
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @param color
+	 *            the new colour
+	 */
+	public void setSeriesColor(final int seriesIndex, final Color color) {
+		seriesCanvas.setSeriesColor(seriesIndex, color);
+		if (canvasRendering) {
+			requestChartLayout();
+		}
+	}
+
+	/**
+	 * Marks points as selected in canvas rendering mode.
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @param indices
+	 *            the indices of the selected points in the data set
+	 */
+	public void setSelection(final int seriesIndex, final List<? extends Integer> indices) {
+		final int[] selectedIndices = new int[indices.size()];
+		for (int i = 0; i < selectedIndices.length; i++) {
+			selectedIndices[i] = indices.get(i);
+		}
+		seriesCanvas.setSelection(seriesIndex, selectedIndices);
+		requestChartLayout();
+	}
+
+	/**
+	 * Clears the selection of canvas rendering mode.
+	 */
+	public void clearSelection() {
+		seriesCanvas.clearSelection();
+		requestChartLayout();
+	}
+
+	/**
+	 * Finds the shown point that is closest to the given position, as long as it is close enough to be hit. Points of
+	 * series that are drawn later win, because they are on top.
+	 *
+	 * @param sceneX
+	 *            the x position in the coordinates of the scene
+	 * @param sceneY
+	 *            the y position in the coordinates of the scene
+	 * @return the point that was hit, or {@code null} if there is no point close to the position
+	 */
+	public DataPointHit hitTest(final double sceneX, final double sceneY) {
+		// the canvas lies in the content of the plot area in both rendering modes, even while it is not visible
+		final Point2D position = seriesCanvas.getParent().sceneToLocal(sceneX, sceneY);
+		final double x = position.getX();
+		final double y = position.getY();
+		if (x < 0 || x > xAxis.getWidth() || y < 0 || y > yAxis.getHeight()) {
+			return null;
+		}
+
+		DataPointHit hit = null;
+		double hitDistance = HIT_RADIUS * HIT_RADIUS;
+		for (int seriesIndex = pipelines.size() - 1; seriesIndex >= 0; seriesIndex--) {
+			final int shownPosition = hitGrids.get(seriesIndex).findNearest(x, y);
+			if (shownPosition < 0) {
+				continue;
+			}
+			final SeriesPipeline pipeline = pipelines.get(seriesIndex);
+			final DataSeries series = pipeline.getDataSeries();
+			final int index = pipeline.getSourceIndex(shownPosition);
+			final double dx = xAxis.getDisplayPosition(series.getX(index)) - x;
+			final double dy = yAxis.getDisplayPosition(series.getY(index)) - y;
+			final double distance = dx * dx + dy * dy;
+			if (distance < hitDistance) {
+				hitDistance = distance;
+				hit = new DataPointHit(seriesIndex, index);
+			}
+		}
+		return hit;
+	}
+
+	@Override
+	protected void layoutChildren() {
+		if (canvasRendering && !dataRangeValid) {
+			updateAxisRange();
+		}
+		super.layoutChildren();
+	}
+
+	@Override
+	protected void updateAxisRange() {
+		if (!canvasRendering) {
+			super.updateAxisRange();
+			return;
+		}
+		dataRangeValid = true;
+
+		// the comparisons below skip missing values
+		double minX = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (final SeriesPipeline pipeline : pipelines) {
+			final DataSeries series = pipeline.getDataSeries();
+			final int size = series.size();
+			if (size == 0) {
+				continue;
+			}
+
+			// the x range of a sorted series is given by its first and last point
+			final int step = series.isSortedByX() ? Math.max(size - 1, 1) : 1;
+			for (int i = 0; i < size; i += step) {
+				final double x = series.getX(i);
+				if (x < minX) {
+					minX = x;
+				}
+				if (x > maxX) {
+					maxX = x;
+				}
+			}
+
+			final double lowestY = series.getY(pipeline.getPyramid().indexOfMinY(0, size));
+			final double highestY = series.getY(pipeline.getPyramid().indexOfMaxY(0, size));
+			if (lowestY < minY) {
+				minY = lowestY;
+			}
+			if (highestY > maxY) {
+				maxY = highestY;
+			}
+		}
+
+		if (xAxis.isAutoRanging()) {
+			xAxis.invalidateRange(createRange(minX, maxX));
+		}
+		if (yAxis.isAutoRanging()) {
+			yAxis.invalidateRange(createRange(minY, maxY));
+		}
+	}
+
+	@Override
+	protected void layoutPlotChildren() {
+		super.layoutPlotChildren();
+		if (canvasRendering) {
+			// the points are drawn for the current bounds of the axes, not for the ones of the last update
+			for (final SeriesPipeline pipeline : pipelines) {
+				pipeline.flushUpdate();
+			}
+			seriesCanvas.setPlotSize(xAxis.getWidth(), yAxis.getHeight());
+			seriesCanvas.setCreateSymbols(getCreateSymbols());
+			seriesCanvas.setSortByX(getAxisSortingPolicy() == SortingPolicy.X_AXIS);
+			seriesCanvas.draw();
+		}
+	}
+
+	private static List<Number> createRange(final double min, final double max) {
+		if (!(min <= max)) {
+			return Collections.emptyList();
+		}
+		return Arrays.<Number> asList(min, max);
+	}
+}
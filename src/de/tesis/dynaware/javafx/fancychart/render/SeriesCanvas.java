@@ -0,0 +1,577 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.render;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.paint.Color;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+
+/**
+ * Draws the lines and symbols of several series onto a single canvas, using the shown points of their
+ * {@link SeriesPipeline}s. The canvas covers the plot area of a chart and maps the points with the chart's axes. Unlike
+ * a chart series, it has no node per point, so the cost of layout and CSS does not depend on the number of points.
+ *
+ * <p>
+ * The lines and symbols look like the ones of a line chart with the default styles and {@code fancychart.css}.
+ * Symbols are only drawn while the points are far enough apart to tell them apart.
+ * </p>
+ *
+ * <p>
+ * The image reaches beyond the plot area by a margin on each side, and the canvas is moved so that the part of the
+ * image that belongs to the plot area covers it. When the axes have only been moved by whole pixels since the last
+ * drawing, e.g. while the chart is panned, the canvas is moved by as much and only the strips of the plot area that the
+ * image did not show before are drawn. For data sets that are sorted by x, a strip at the left or right costs as much as
+ * the points inside it. Everything is drawn again when the axes move beyond the margin, or when the scale of an axis,
+ * the size of the plot area, the look of the series or the revision of a pipeline has changed. No pixels are ever read
+ * back from the image.
+ * </p>
+ */
+public class SeriesCanvas extends Canvas {
+
+	/**
+	 * The size and the inset of the white centre of a symbol before scaling, as given by {@code .chart-line-symbol}.
+	 */
+	private static final double SYMBOL_SIZE = 10;
+	private static final double SYMBOL_INSET = 2;
+
+	private static final double REGULAR_SCALE = 0.5;
+	private static final double SELECTED_SCALE = 1.2;
+	private static final double LINE_WIDTH = 2;
+
+	/**
+	 * The distance in pixels by which lines and symbols may reach beyond their points.
+	 */
+	private static final double DRAW_MARGIN = SYMBOL_SIZE * SELECTED_SCALE;
+
+	/**
+	 * The margin of the image on each side, as a fraction of the size of the plot area.
+	 */
+	private static final double IMAGE_MARGIN = 0.25;
+
+	/**
+	 * The largest width or height of the image, which every rendering pipeline can hold in a single texture.
+	 */
+	private static final int MAX_IMAGE_SIZE = 4096;
+
+	/**
+	 * The relative difference up to which two scales of an axis are considered equal.
+	 */
+	private static final double SCALE_TOLERANCE = 1e-9;
+
+	/**
+	 * The difference in pixels up to which a shift is considered a shift by whole pixels.
+	 */
+	private static final double SHIFT_TOLERANCE = 1e-3;
+
+	private final NumberAxis xAxis;
+	private final NumberAxis yAxis;
+	private final List<SeriesPipeline> pipelines = new ArrayList<>();
+	private final List<Color> colors = new ArrayList<>();
+	private final List<XOrder> xOrders = new ArrayList<>();
+
+	private boolean createSymbols = true;
+	private boolean sortByX = true;
+
+	private int selectedSeriesIndex = -1;
+	private int[] selectedIndices = new int[0];
+
+	private double plotWidth;
+	private double plotHeight;
+	private int marginX;
+	private int marginY;
+
+	// the mapping from values to the pixels of the image, which is kept until everything is drawn again
+	private double xLowerBound;
+	private double xOrigin;
+	private double xScale;
+	private double yLowerBound;
+	private double yOrigin;
+	private double yScale;
+
+	// what the current image shows, so that the next drawing can tell whether moving the canvas is enough
+	private boolean imageValid;
+	private long[] imageRevisions = new long[0];
+	private boolean[] imageSymbols = new boolean[0];
+	// the position of the plot area in the image
+	private double windowX;
+	private double windowY;
+
+	/**
+	 * Creates a new canvas that maps points with the given axes.
+	 *
+	 * @param xAxis
+	 *            the x axis of the chart
+	 * @param yAxis
+	 *            the y axis of the chart
+	 */
+	public SeriesCanvas(final NumberAxis xAxis, final NumberAxis yAxis) {
+		this.xAxis = xAxis;
+		this.yAxis = yAxis;
+	}
+
+	/**
+	 * Adds a series to draw. Series are drawn in the order they were added.
+	 *
+	 * @param pipeline
+	 *            the pipeline of the series
+	 */
+	public void addSeriesPipeline(final SeriesPipeline pipeline) {
+		pipelines.add(pipeline);
+		colors.add(Color.BLACK);
+		xOrders.add(new XOrder());
+		imageValid = false;
+	}
+
+	/**
+	 * Sets the size of the plot area that the canvas covers. The canvas itself is larger by the margin of the image.
+	 *
+	 * @param width
+	 *            the width of the plot area
+	 * @param height
+	 *            the height of the plot area
+	 */
+	public void setPlotSize(final double width, final double height) {
+		if (plotWidth != width || plotHeight != height) {
+			plotWidth = width;
+			plotHeight = height;
+			marginX = computeMargin(width);
+			marginY = computeMargin(height);
+			setWidth(Math.ceil(width) + 2 * marginX);
+			setHeight(Math.ceil(height) + 2 * marginY);
+			imageValid = false;
+		}
+	}
+
+	/**
+	 * Sets the colour of the line and the symbols of a series.
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @param color
+	 *            the new colour
+	 */
+	public void setSeriesColor(final int seriesIndex, final Color color) {
+		colors.set(seriesIndex, color);
+		imageValid = false;
+	}
+
+	/**
+	 * @param createSymbols
+	 *            {@code true} if symbols should be drawn for the points
+	 */
+	public void setCreateSymbols(final boolean createSymbols) {
+		if (this.createSymbols != createSymbols) {
+			this.createSymbols = createSymbols;
+			imageValid = false;
+		}
+	}
+
+	/**
+	 * @param sortByX
+	 *            {@code true} if the line should connect the points in the order of their x values, like a line chart
+	 *            with the default axis sorting policy
+	 */
+	public void setSortByX(final boolean sortByX) {
+		if (this.sortByX != sortByX) {
+			this.sortByX = sortByX;
+			imageValid = false;
+		}
+	}
+
+	/**
+	 * Marks the given points as selected. Selected points are drawn with larger symbols.
+	 *
+	 * @param seriesIndex
+	 *            the index of the series
+	 * @param indices
+	 *            the indices of the selected points in the data set
+	 */
+	public void setSelection(final int seriesIndex, final int[] indices) {
+		selectedSeriesIndex = seriesIndex;
+		selectedIndices = indices;
+		imageValid = false;
+	}
+
+	/**
+	 * Clears the selection.
+	 */
+	public void clearSelection() {
+		selectedSeriesIndex = -1;
+		selectedIndices = new int[0];
+		imageValid = false;
+	}
+
+	/**
+	 * Draws all series again, or moves the canvas and draws the uncovered strips if the axes have only been moved. Must
+	 * be called after the axes were laid out.
+	 */
+	public void draw() {
+		final double newXLowerBound = xAxis.getLowerBound();
+		final double newXOrigin = xAxis.getDisplayPosition(newXLowerBound);
+		final double newXScale = computeScale(xAxis, newXLowerBound, newXOrigin);
+		final double newYLowerBound = yAxis.getLowerBound();
+		final double newYOrigin = yAxis.getDisplayPosition(newYLowerBound);
+		final double newYScale = computeScale(yAxis, newYLowerBound, newYOrigin);
+
+		final double newWindowX = computeWindowPosition(xLowerBound, xOrigin, xScale, newXLowerBound, newXOrigin,
+				newXScale);
+		final double newWindowY = computeWindowPosition(yLowerBound, yOrigin, yScale, newYLowerBound, newYOrigin,
+				newYScale);
+		if (!isImageCurrent() || !(newWindowX >= 0 && newWindowX + plotWidth <= getWidth())
+				|| !(newWindowY >= 0 && newWindowY + plotHeight <= getHeight())) {
+			xLowerBound = newXLowerBound;
+			xOrigin = newXOrigin + marginX;
+			xScale = newXScale;
+			yLowerBound = newYLowerBound;
+			yOrigin = newYOrigin + marginY;
+			yScale = newYScale;
+			drawImage();
+		} else if (newWindowX != windowX || newWindowY != windowY) {
+			moveWindow(newWindowX, newWindowY);
+		}
+	}
+
+	/**
+	 * Draws all series onto a cleared canvas and remembers what the image shows.
+	 */
+	private void drawImage() {
+		final GraphicsContext gc = getGraphicsContext2D();
+		gc.clearRect(0, 0, getWidth(), getHeight());
+		drawSeries(gc, 0, getWidth());
+		showWindow(marginX, marginY);
+
+		imageValid = true;
+		imageRevisions = new long[pipelines.size()];
+		imageSymbols = new boolean[pipelines.size()];
+		for (int seriesIndex = 0; seriesIndex < pipelines.size(); seriesIndex++) {
+			imageRevisions[seriesIndex] = pipelines.get(seriesIndex).getRevision();
+			imageSymbols[seriesIndex] = showsSymbols(pipelines.get(seriesIndex));
+		}
+	}
+
+	/**
+	 * Checks whether the current image shows the current points of all series in the current look.
+	 */
+	private boolean isImageCurrent() {
+		if (!imageValid) {
+			return false;
+		}
+		for (int seriesIndex = 0; seriesIndex < pipelines.size(); seriesIndex++) {
+			final SeriesPipeline pipeline = pipelines.get(seriesIndex);
+			if (imageRevisions[seriesIndex] != pipeline.getRevision()
+					|| imageSymbols[seriesIndex] != showsSymbols(pipeline)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the plot area to the given position in the image and draws the strips of it that were not shown before.
+	 * The strips are drawn from the points that are shown now, so their reduction may differ slightly from the rest of
+	 * the image.
+	 */
+	private void moveWindow(final double newWindowX, final double newWindowY) {
+		final GraphicsContext gc = getGraphicsContext2D();
+		if (newWindowX < windowX) {
+			drawStrip(gc, newWindowX, newWindowY, Math.min(windowX - newWindowX, plotWidth), plotHeight);
+		} else if (newWindowX > windowX) {
+			final double stripX = Math.max(windowX + plotWidth, newWindowX);
+			drawStrip(gc, stripX, newWindowY, newWindowX + plotWidth - stripX, plotHeight);
+		}
+		if (newWindowY < windowY) {
+			drawStrip(gc, newWindowX, newWindowY, plotWidth, Math.min(windowY - newWindowY, plotHeight));
+		} else if (newWindowY > windowY) {
+			final double stripY = Math.max(windowY + plotHeight, newWindowY);
+			drawStrip(gc, newWindowX, stripY, plotWidth, newWindowY + plotHeight - stripY);
+		}
+		showWindow(newWindowX, newWindowY);
+	}
+
+	/**
+	 * Moves the canvas so that the given position of the image lies at the origin of the plot area.
+	 */
+	private void showWindow(final double x, final double y) {
+		windowX = x;
+		windowY = y;
+		setTranslateX(-x);
+		setTranslateY(-y);
+	}
+
+	/**
+	 * Draws the series inside the given rectangle of the image only, which may still show an older part of the plot.
+	 */
+	private void drawStrip(final GraphicsContext gc, final double x, final double y, final double width,
+			final double height) {
+		gc.clearRect(x, y, width, height);
+		gc.save();
+		gc.beginPath();
+		gc.rect(x, y, width, height);
+		gc.clip();
+		drawSeries(gc, x, x + width);
+		gc.restore();
+	}
+
+	/**
+	 * Draws the lines, the symbols and the selection of all series. Only the points between the given horizontal
+	 * positions and their neighbours are drawn, as far as the order of the points allows to skip the others.
+	 */
+	private void drawSeries(final GraphicsContext gc, final double minX, final double maxX) {
+		for (int seriesIndex = 0; seriesIndex < pipelines.size(); seriesIndex++) {
+			final SeriesPipeline pipeline = pipelines.get(seriesIndex);
+			final Color color = colors.get(seriesIndex);
+			final int count = pipeline.getShownCount();
+			final int from = Math.max(findShownPosition(pipeline, minX - DRAW_MARGIN, 0) - 1, 0);
+			final int to = Math.min(findShownPosition(pipeline, maxX + DRAW_MARGIN, count) + 1, count);
+			drawLine(gc, pipeline, xOrders.get(seriesIndex), color, from, to);
+
+			if (showsSymbols(pipeline)) {
+				final DataSeries series = pipeline.getDataSeries();
+				for (int i = from; i < to; i++) {
+					final int index = pipeline.getSourceIndex(i);
+					drawSymbol(gc, toDisplayX(series.getX(index)), toDisplayY(series.getY(index)), color,
+							REGULAR_SCALE);
+				}
+			}
+		}
+
+		if (selectedSeriesIndex >= 0 && selectedSeriesIndex < pipelines.size()) {
+			final DataSeries series = pipelines.get(selectedSeriesIndex).getDataSeries();
+			final Color color = colors.get(selectedSeriesIndex);
+			for (final int index : selectedIndices) {
+				if (index < series.size()) {
+					drawSymbol(gc, toDisplayX(series.getX(index)), toDisplayY(series.getY(index)), color,
+							SELECTED_SCALE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the first shown point that is drawn at or to the right of the given horizontal position.
+	 *
+	 * @return the position of the point among the shown points, or the given fallback if the series is not sorted by
+	 *         its x values
+	 */
+	private int findShownPosition(final SeriesPipeline pipeline, final double displayX, final int fallback) {
+		final DataSeries series = pipeline.getDataSeries();
+		if (!series.isSortedByX() || !(xScale > 0)) {
+			return fallback;
+		}
+		int low = 0;
+		int high = pipeline.getShownCount();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (toDisplayX(series.getX(pipeline.getSourceIndex(middle))) < displayX) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private boolean showsSymbols(final SeriesPipeline pipeline) {
+		return createSymbols && pipeline.getShownCount() * SYMBOL_SIZE * REGULAR_SCALE <= plotWidth;
+	}
+
+	/**
+	 * Connects the shown points of a series between the given positions. Points with a missing value interrupt the
+	 * line.
+	 */
+	private void drawLine(final GraphicsContext gc, final SeriesPipeline pipeline, final XOrder xOrder,
+			final Color color, final int from, final int to) {
+		final DataSeries series = pipeline.getDataSeries();
+		final int[] order = sortByX && !series.isSortedByX() ? xOrder.get(pipeline) : null;
+
+		gc.setStroke(color);
+		gc.setLineWidth(LINE_WIDTH);
+		gc.beginPath();
+		boolean newSegment = true;
+		for (int i = from; i < to; i++) {
+			final int index = pipeline.getSourceIndex(order == null ? i : order[i]);
+			final double x = toDisplayX(series.getX(index));
+			final double y = toDisplayY(series.getY(index));
+			if (Double.isNaN(x) || Double.isNaN(y)) {
+				newSegment = true;
+			} else if (newSegment) {
+				gc.moveTo(x, y);
+				newSegment = false;
+			} else {
+				gc.lineTo(x, y);
+			}
+		}
+		gc.stroke();
+	}
+
+	private static void drawSymbol(final GraphicsContext gc, final double x, final double y, final Color color,
+			final double scale) {
+		if (Double.isNaN(x) || Double.isNaN(y)) {
+			return;
+		}
+		final double size = SYMBOL_SIZE * scale;
+		final double innerSize = (SYMBOL_SIZE - 2 * SYMBOL_INSET) * scale;
+		gc.setFill(color);
+		gc.fillOval(x - size / 2, y - size / 2, size, size);
+		gc.setFill(Color.WHITE);
+		gc.fillOval(x - innerSize / 2, y - innerSize / 2, innerSize, innerSize);
+	}
+
+	/**
+	 * Computes where the origin of the plot area lies in the image, given the mapping of an axis to the image and its
+	 * current mapping to the plot area. The mappings are taken from the axes instead of their bounds, which keeps the
+	 * canvas in line with animated axes.
+	 *
+	 * @return the position in pixels, or {@link Double#NaN} if the scale has changed or the values have not moved by
+	 *         whole pixels
+	 */
+	private static double computeWindowPosition(final double imageLowerBound, final double imageOrigin,
+			final double imageScale, final double lowerBound, final double origin, final double scale) {
+		if (scale == 0 || !(Math.abs(scale - imageScale) <= SCALE_TOLERANCE * Math.abs(scale))) {
+			return Double.NaN;
+		}
+		final double position = imageOrigin - origin + (lowerBound - imageLowerBound) * scale;
+		final double pixels = Math.rint(position);
+		return Math.abs(position - pixels) < SHIFT_TOLERANCE ? pixels : Double.NaN;
+	}
+
+	/**
+	 * Computes the margin of the image for a size of the plot area, as large as the size of the image allows.
+	 */
+	private static int computeMargin(final double size) {
+		final int maxMargin = (MAX_IMAGE_SIZE - (int) Math.ceil(size)) / 2;
+		return Math.max(Math.min((int) (size * IMAGE_MARGIN), maxMargin), 0);
+	}
+
+	private static double computeScale(final NumberAxis axis, final double lowerBound, final double origin) {
+		final double upperBound = axis.getUpperBound();
+		if (upperBound == lowerBound) {
+			return 0;
+		}
+		return (axis.getDisplayPosition(upperBound) - origin) / (upperBound - lowerBound);
+	}
+
+	private double toDisplayX(final double x) {
+		return xOrigin + (x - xLowerBound) * xScale;
+	}
+
+	private double toDisplayY(final double y) {
+		return yOrigin + (y - yLowerBound) * yScale;
+	}
+
+	/**
+	 * The order of the shown points of an unsorted series by their x values. The order is kept as long as the pipeline
+	 * shows the same points at the same revision, so a series that is only redrawn, e.g. while the y axis is moved, is
+	 * not sorted again.
+	 */
+	private static class XOrder {
+
+		private long revision = -1;
+		private int count;
+		// the source indices of the shown points the order was computed for
+		private int[] sourceIndices = new int[0];
+		// the shown positions of the points in the order of their x values, and the x values by shown position
+		private int[] order = new int[0];
+		private int[] buffer = new int[0];
+		private double[] xValues = new double[0];
+
+		/**
+		 * Returns the shown positions of the points of the pipeline in the order of their x values. Only the first
+		 * {@link SeriesPipeline#getShownCount()} entries are valid.
+		 */
+		int[] get(final SeriesPipeline pipeline) {
+			if (!isCurrent(pipeline)) {
+				sort(pipeline);
+			}
+			return order;
+		}
+
+		private boolean isCurrent(final SeriesPipeline pipeline) {
+			if (revision != pipeline.getRevision() || count != pipeline.getShownCount()) {
+				return false;
+			}
+			for (int i = 0; i < count; i++) {
+				if (sourceIndices[i] != pipeline.getSourceIndex(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void sort(final SeriesPipeline pipeline) {
+			final DataSeries series = pipeline.getDataSeries();
+			revision = pipeline.getRevision();
+			count = pipeline.getShownCount();
+			if (order.length < count) {
+				sourceIndices = new int[count];
+				order = new int[count];
+				buffer = new int[count];
+				xValues = new double[count];
+			}
+			for (int i = 0; i < count; i++) {
+				sourceIndices[i] = pipeline.getSourceIndex(i);
+				xValues[i] = series.getX(sourceIndices[i]);
+				order[i] = i;
+			}
+			mergeSort(0, count);
+		}
+
+		/**
+		 * Sorts the range of the order by x. The sort is stable, so points with the same x value keep their order.
+		 */
+		private void mergeSort(final int from, final int to) {
+			if (to - from <= 16) {
+				insertionSort(from, to);
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			mergeSort(from, middle);
+			mergeSort(middle, to);
+			merge(from, middle, to);
+		}
+
+		/**
+		 * Merges the two sorted halves of the range of the order, using the buffer.
+		 */
+		private void merge(final int from, final int middle, final int to) {
+			if (Double.compare(xValues[order[middle - 1]], xValues[order[middle]]) <= 0) {
+				return;
+			}
+
+			System.arraycopy(order, from, buffer, from, to - from);
+			int left = from;
+			int right = middle;
+			for (int i = from; i < to; i++) {
+				if (right >= to || left < middle
+						&& Double.compare(xValues[buffer[left]], xValues[buffer[right]]) <= 0) {
+					order[i] = buffer[left++];
+				} else {
+					order[i] = buffer[right++];
+				}
+			}
+		}
+
+		private void insertionSort(final int from, final int to) {
+			for (int i = from + 1; i < to; i++) {
+				final int position = order[i];
+				final double x = xValues[position];
+				int j = i - 1;
+				while (j >= from && Double.compare(xValues[order[j]], x) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = position;
+			}
+		}
+	}
+}
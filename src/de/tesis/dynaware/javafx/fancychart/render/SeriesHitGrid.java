@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.render;
+
+import java.util.Arrays;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.scene.chart.NumberAxis;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+
+/**
+ * A uniform grid over the shown points of a {@link SeriesPipeline} in the pixel space of the plot area, to find the
+ * point closest to the mouse without looking at every point.
+ *
+ * <p>
+ * The cells are as large as the maximum distance of a hit, so every point that can be hit from a position lies in the
+ * cell of the position or in one of its eight neighbours. Points outside the plot area are put into the cells at its
+ * border, which keeps this true for them as well.
+ * </p>
+ *
+ * <p>
+ * The grid is built on the first query after the shown points or the scale of an axis have changed, so changes that
+ * follow each other quickly cost nothing until the mouse is moved again. Building the grid takes as long as looking at
+ * each shown point once. If the axes have only been moved, the grid is kept and queried at the position that
+ * corresponds to the mouse before the move.
+ * </p>
+ */
+class SeriesHitGrid {
+
+	/**
+	 * The relative difference up to which two scales of an axis are considered equal.
+	 */
+	private static final double SCALE_TOLERANCE = 1e-9;
+
+	private final SeriesPipeline pipeline;
+	private final NumberAxis xAxis;
+	private final NumberAxis yAxis;
+	private final double cellSize;
+
+	private boolean pointsValid;
+
+	// the mapping from values to pixels when the grid was built
+	private double xLowerBound;
+	private double xOrigin;
+	private double xScale;
+	private double yLowerBound;
+	private double yOrigin;
+	private double yScale;
+
+	private int columns;
+	private int rows;
+	// the shown positions of the points in cell i are cellPositions[cellStarts[i]] up to cellStarts[i + 1]
+	private int[] cellStarts = new int[1];
+	private int[] cellPositions = new int[0];
+	// the pixel coordinates of the shown points, by their shown position
+	private double[] pixelXs = new double[0];
+	private double[] pixelYs = new double[0];
+
+	/**
+	 * Creates a new grid over the shown points of the given pipeline.
+	 *
+	 * @param pipeline
+	 *            the pipeline of the series
+	 * @param xAxis
+	 *            the x axis of the chart
+	 * @param yAxis
+	 *            the y axis of the chart
+	 * @param cellSize
+	 *            the size of a cell in pixels, which is the maximum distance of a hit
+	 */
+	SeriesHitGrid(final SeriesPipeline pipeline, final NumberAxis xAxis, final NumberAxis yAxis, final double cellSize) {
+		this.pipeline = pipeline;
+		this.xAxis = xAxis;
+		this.yAxis = yAxis;
+		this.cellSize = cellSize;
+
+		pipeline.addListener(new InvalidationListener() {
+			@Override
+			public void invalidated(final Observable observable) {
+				pointsValid = false;
+			}
+		});
+	}
+
+	/**
+	 * Finds the shown point that is closest to the given position, as long as it is not farther away than the size of
+	 * a cell.
+	 *
+	 * @param x
+	 *            the x position in pixels, relative to the plot area
+	 * @param y
+	 *            the y position in pixels, relative to the plot area
+	 * @return the position of the point among the shown points, or -1 if no point is close enough
+	 */
+	int findNearest(final double x, final double y) {
+		final double newXLowerBound = xAxis.getLowerBound();
+		final double newXOrigin = xAxis.getDisplayPosition(newXLowerBound);
+		final double newXScale = computeScale(xAxis, newXLowerBound, newXOrigin);
+		final double newYLowerBound = yAxis.getLowerBound();
+		final double newYOrigin = yAxis.getDisplayPosition(newYLowerBound);
+		final double newYScale = computeScale(yAxis, newYLowerBound, newYOrigin);
+		if (!pointsValid || !isSameScale(xScale, newXScale) || !isSameScale(yScale, newYScale)) {
+			build(newXLowerBound, newXOrigin, newXScale, newYLowerBound, newYOrigin, newYScale);
+		}
+
+		// the position in the pixel space of the grid
+		final double gridX = x - (newXOrigin - xOrigin + (xLowerBound - newXLowerBound) * xScale);
+		final double gridY = y - (newYOrigin - yOrigin + (yLowerBound - newYLowerBound) * yScale);
+		final int column = toCell(gridX, columns);
+		final int row = toCell(gridY, rows);
+
+		int nearest = -1;
+		double nearestDistance = cellSize * cellSize;
+		for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); r++) {
+			for (int c = Math.max(column - 1, 0); c <= Math.min(column + 1, columns - 1); c++) {
+				final int cell = r * columns + c;
+				for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+					final int position = cellPositions[i];
+					final double dx = pixelXs[position] - gridX;
+					final double dy = pixelYs[position] - gridY;
+					final double distance = dx * dx + dy * dy;
+					if (distance < nearestDistance) {
+						nearestDistance = distance;
+						nearest = position;
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Sorts the shown points into the cells of the current plot area with a counting sort.
+	 */
+	private void build(final double newXLowerBound, final double newXOrigin, final double newXScale,
+			final double newYLowerBound, final double newYOrigin, final double newYScale) {
+		xLowerBound = newXLowerBound;
+		xOrigin = newXOrigin;
+		xScale = newXScale;
+		yLowerBound = newYLowerBound;
+		yOrigin = newYOrigin;
+		yScale = newYScale;
+		columns = Math.max((int) Math.ceil(xAxis.getWidth() / cellSize), 1);
+		rows = Math.max((int) Math.ceil(yAxis.getHeight() / cellSize), 1);
+
+		final DataSeries series = pipeline.getDataSeries();
+		final int count = pipeline.getShownCount();
+		if (pixelXs.length < count) {
+			pixelXs = new double[count];
+			pixelYs = new double[count];
+			cellPositions = new int[count];
+		}
+		final int[] cells = new int[count];
+		if (cellStarts.length != columns * rows + 1) {
+			cellStarts = new int[columns * rows + 1];
+		} else {
+			Arrays.fill(cellStarts, 0);
+		}
+
+		// count the points per cell, shifted by one so that the sums below end up as the starts of the cells
+		for (int i = 0; i < count; i++) {
+			final int index = pipeline.getSourceIndex(i);
+			pixelXs[i] = xOrigin + (series.getX(index) - xLowerBound) * xScale;
+			pixelYs[i] = yOrigin + (series.getY(index) - yLowerBound) * yScale;
+			if (Double.isNaN(pixelXs[i]) || Double.isNaN(pixelYs[i])) {
+				// a missing value cannot be hit
+				cells[i] = -1;
+			} else {
+				cells[i] = toCell(pixelYs[i], rows) * columns + toCell(pixelXs[i], columns);
+				cellStarts[cells[i] + 1]++;
+			}
+		}
+		for (int cell = 0; cell < columns * rows; cell++) {
+			cellStarts[cell + 1] += cellStarts[cell];
+		}
+
+		final int[] fill = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+		for (int i = 0; i < count; i++) {
+			if (cells[i] >= 0) {
+				cellPositions[fill[cells[i]]++] = i;
+			}
+		}
+		pointsValid = true;
+	}
+
+	/**
+	 * Returns the cell of a pixel coordinate. Coordinates outside the plot area belong to the cells at its border.
+	 */
+	private int toCell(final double pixel, final int cellCount) {
+		final double cell = Math.floor(pixel / cellSize);
+		return (int) Math.max(0, Math.min(cell, cellCount - 1));
+	}
+
+	private static boolean isSameScale(final double scale, final double newScale) {
+		return Math.abs(newScale - scale) <= SCALE_TOLERANCE * Math.abs(newScale);
+	}
+
+	private static double computeScale(final NumberAxis axis, final double lowerBound, final double origin) {
+		final double upperBound = axis.getUpperBound();
+		if (upperBound == lowerBound) {
+			return 0;
+		}
+		return (axis.getDisplayPosition(upperBound) - origin) / (upperBound - lowerBound);
+	}
+}
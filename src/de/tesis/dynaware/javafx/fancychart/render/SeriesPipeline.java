@@ -0,0 +1,651 @@
+/*
+ * Copyright (C) 2014 TESIS DYNAware GmbH.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * This file is licensed under the Eclipse Public License v1.0, which accompanies this
+ * distribution and is available at http://www.eclipse.org/legal/epl-v10.html.
+ */
+package de.tesis.dynaware.javafx.fancychart.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.chart.XYChart.Data;
+import javafx.scene.chart.XYChart.Series;
+import de.tesis.dynaware.javafx.fancychart.data.DataItem;
+import de.tesis.dynaware.javafx.fancychart.data.DataSeries;
+import de.tesis.dynaware.javafx.fancychart.data.SeriesPyramid;
+import de.tesis.dynaware.javafx.fancychart.data.SeriesReducer;
+
+/**
+ * Feeds the points of a {@link DataSeries} into a series of a line chart.
+ *
+ * <p>
+ * A chart series with one node per point becomes unusable for large data sets. If a data set has more points than
+ * can be told apart at the current width of the plot, the pipeline only hands a reduced set of points to the chart
+ * and recomputes it when the data or the width of the plot changes. The data set itself always keeps the full
+ * resolution.
+ * </p>
+ *
+ * <p>
+ * While the x axis is not auto-ranging, e.g. after a zoom, only the points inside its bounds are handed to the chart,
+ * plus one neighbour on each side so that the lines leave the plot area correctly. The range is found by a binary
+ * search, so the work for a deep zoom into a large data set only depends on the number of points in the range. Data
+ * sets that are not sorted by x are not cut down. The reduced points of the last few ranges are cached, so going back
+ * to a previous zoom level does not reduce the data set again.
+ * </p>
+ *
+ * <p>
+ * Ranges that are not cached are reduced on a background thread, while a coarse preview from the level-of-detail index
+ * is shown right away. Every update has a generation number, so a reduction is dropped as soon as a newer update or a
+ * change of the data set supersedes it, and only the latest result is shown.
+ * </p>
+ *
+ * <p>
+ * As long as all points are shown, changes of the data set are applied to the chart series one by one. Points that did
+ * not change keep their chart data and nodes, so editing a single row only costs as much as the change itself.
+ * </p>
+ *
+ * <p>
+ * In canvas rendering mode the chart series stays empty and the pipeline only keeps the indices of the points to show,
+ * which are drawn by a {@link SeriesCanvas}. Invalidation listeners are notified whenever the shown points change.
+ * </p>
+ */
+public class SeriesPipeline implements Observable {
+
+	/**
+	 * The number of chart points per horizontal pixel of the plot area.
+	 */
+	private static final int POINTS_PER_PIXEL = 2;
+
+	/**
+	 * The plot width that is assumed before the chart has been laid out for the first time.
+	 */
+	private static final double DEFAULT_PLOT_WIDTH = 1000;
+
+	/**
+	 * The number of reduced ranges that are cached.
+	 */
+	private static final int CACHE_SIZE = 16;
+
+	/**
+	 * The preview of a range that is being reduced shows this many times fewer points than the final result.
+	 */
+	private static final int PREVIEW_COARSENESS = 8;
+
+	/**
+	 * Reduces the ranges of all pipelines in the background.
+	 */
+	private static final ExecutorService REDUCTION_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime()
+			.availableProcessors(), new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "Series reduction");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final DataSeries dataSeries;
+	private final SeriesPyramid pyramid;
+	private final Series<Number, Number> chartSeries;
+	private final NumberAxis xAxis;
+	private final List<InvalidationListener> listeners = new ArrayList<>();
+
+	private SeriesReducer.Method reductionMethod = SeriesReducer.Method.MIN_MAX;
+	private boolean canvasRendering;
+
+	private int[] shownIndices = new int[0];
+	private int shownCount;
+	// the shown points are a subset of the data set, given by the shown indices
+	private boolean reduced;
+	// the shown points are restricted to the bounds of the x axis
+	private boolean culled;
+
+	// the reduced points of recently shown ranges, least recently used first, until the data set changes
+	private final Map<ReducedRange, int[]> reducedRanges = new LinkedHashMap<ReducedRange, int[]>(CACHE_SIZE, 0.75f,
+			true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<ReducedRange, int[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	private int pointBudget;
+	private boolean updatePending;
+
+	// changed on the JavaFX application thread only, read by the reductions to find out whether they are still needed
+	private volatile long generation;
+	private Future<?> pendingReduction;
+	// the snapshot read by the pending reduction, released by whoever claims it first: the reduction once it is done, or
+	// the update that supersedes it before it has started
+	private DataSeries pendingSnapshot;
+	private AtomicBoolean pendingSnapshotClaim;
+
+	// changes whenever the shown points change for another reason than a change of the shown range
+	private long revision;
+
+	/**
+	 * Creates a new pipeline and shows the current points of the data set in the chart series.
+	 *
+	 * @param pyramid
+	 *            the level-of-detail index of the data set with the full-resolution data
+	 * @param chartSeries
+	 *            the chart series that should show the data set
+	 * @param xAxis
+	 *            the x axis of the chart, whose width determines the number of points shown
+	 */
+	public SeriesPipeline(final SeriesPyramid pyramid, final Series<Number, Number> chartSeries, final NumberAxis xAxis) {
+		this.dataSeries = pyramid.getDataSeries();
+		this.pyramid = pyramid;
+		this.chartSeries = chartSeries;
+		this.xAxis = xAxis;
+
+		dataSeries.addListener(new ListChangeListener<DataItem>() {
+			@Override
+			public void onChanged(final Change<? extends DataItem> change) {
+				applyChange(change);
+			}
+		});
+
+		// the pyramid of a mapped data set is built in the background and replaces the samples shown until then
+		pyramid.addListener(new InvalidationListener() {
+			@Override
+			public void invalidated(final Observable observable) {
+				reducedRanges.clear();
+				revision++;
+				requestUpdate();
+			}
+		});
+
+		xAxis.widthProperty().addListener(new InvalidationListener() {
+			@Override
+			public void invalidated(final Observable observable) {
+				if (computePointBudget() != pointBudget && (reduced || dataSeries.size() > computePointBudget())) {
+					requestUpdate();
+				}
+			}
+		});
+
+		final InvalidationListener boundsListener = new InvalidationListener() {
+			@Override
+			public void invalidated(final Observable observable) {
+				if (culled || !xAxis.isAutoRanging()) {
+					requestUpdate();
+				}
+			}
+		};
+		xAxis.lowerBoundProperty().addListener(boundsListener);
+		xAxis.upperBoundProperty().addListener(boundsListener);
+		xAxis.autoRangingProperty().addListener(boundsListener);
+
+		update();
+	}
+
+	/**
+	 * @return the data set shown by this pipeline
+	 */
+	public DataSeries getDataSeries() {
+		return dataSeries;
+	}
+
+	/**
+	 * @return the level-of-detail index of the data set
+	 */
+	public SeriesPyramid getPyramid() {
+		return pyramid;
+	}
+
+	/**
+	 * Sets the method that is used to reduce large data sets.
+	 *
+	 * @param reductionMethod
+	 *            the reduction method
+	 */
+	public void setReductionMethod(final SeriesReducer.Method reductionMethod) {
+		this.reductionMethod = reductionMethod;
+		reducedRanges.clear();
+		revision++;
+		requestUpdate();
+	}
+
+	/**
+	 * Switches canvas rendering on or off. While it is on, the chart series is kept empty.
+	 *
+	 * @param canvasRendering
+	 *            {@code true} if the points are drawn by a {@link SeriesCanvas} instead of the chart
+	 */
+	public void setCanvasRendering(final boolean canvasRendering) {
+		if (this.canvasRendering != canvasRendering) {
+			this.canvasRendering = canvasRendering;
+			revision++;
+			if (canvasRendering) {
+				chartSeries.getData().clear();
+			}
+			update();
+		}
+	}
+
+	/**
+	 * Returns the revision of the shown points. The revision changes whenever the shown points change for another
+	 * reason than a change of the shown x range, e.g. because the data set was changed or because a preview was
+	 * replaced by the final reduction. A drawing of the points only has to be redone if the revision or the bounds of
+	 * the axes have changed.
+	 *
+	 * @return the revision of the shown points
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * @return the number of points that are currently shown
+	 */
+	public int getShownCount() {
+		return shownCount;
+	}
+
+	/**
+	 * Returns the index in the data set of the point that is shown at the given position of the chart series.
+	 *
+	 * @param dataIndex
+	 *            the position in the chart series
+	 * @return the index in the data set
+	 */
+	public int getSourceIndex(final int dataIndex) {
+		return reduced ? shownIndices[dataIndex] : dataIndex;
+	}
+
+	/**
+	 * Returns the position in the chart series at which the given point of the data set is shown.
+	 *
+	 * @param sourceIndex
+	 *            the index in the data set
+	 * @return the position in the chart series, or -1 if the point is not shown
+	 */
+	public int getDataIndex(final int sourceIndex) {
+		if (!reduced) {
+			return sourceIndex < shownCount ? sourceIndex : -1;
+		}
+		final int position = Arrays.binarySearch(shownIndices, 0, shownCount, sourceIndex);
+		return position >= 0 ? position : -1;
+	}
+
+	@Override
+	public void addListener(final InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(final InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Recomputes the chart points at the end of the current pulse. Several requests in the same pulse cause only one
+	 * update.
+	 */
+	public void requestUpdate() {
+		if (!updatePending) {
+			updatePending = true;
+			Platform.runLater(new Runnable() {
+				@Override
+				public void run() {
+					flushUpdate();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Recomputes the chart points right away if an update has been requested and is not done yet, e.g. so that the
+	 * points are drawn for the current axis bounds.
+	 */
+	public void flushUpdate() {
+		if (updatePending) {
+			update();
+		}
+	}
+
+	/**
+	 * Recomputes the chart points right away. If the points have to be reduced and the range is not cached, a coarse
+	 * preview is shown until the reduction in the background is done. Min/max reductions are answered by the pyramid
+	 * as fast as a preview, so they are done right away: the query visits one pyramid entry per bucket and searches
+	 * the partial buckets at both ends in logarithmic time, so its cost is bounded by the point budget, i.e. by the
+	 * width of the plot area, and not by the size of the data set.
+	 */
+	public void update() {
+		updatePending = false;
+		supersedeReduction();
+		pointBudget = computePointBudget();
+		final int size = dataSeries.size();
+
+		int from = 0;
+		int to = size;
+		culled = isCullable();
+		if (culled) {
+			from = findFirstCulled();
+			to = findEndCulled();
+		}
+
+		int count = to - from;
+		reduced = count < size;
+		if (count > pointBudget) {
+			final ReducedRange range = new ReducedRange(from, to, pointBudget);
+			final int[] cachedIndices = reducedRanges.get(range);
+			if (cachedIndices != null) {
+				count = showIndices(cachedIndices);
+			} else if (reductionMethod == SeriesReducer.Method.MIN_MAX) {
+				ensureShownCapacity(pointBudget + 8);
+				count = reduce(range, reductionMethod, dataSeries, shownIndices);
+				reducedRanges.put(range, Arrays.copyOf(shownIndices, count));
+			} else {
+				ensureShownCapacity(pointBudget + 8);
+				final int previewBuckets = Math.max(pointBudget / (4 * PREVIEW_COARSENESS), 1);
+				count = pyramid.query(from, to, previewBuckets, shownIndices);
+				reduceInBackground(range);
+			}
+			reduced = true;
+		} else if (reduced) {
+			ensureShownCapacity(count);
+			for (int i = 0; i < count; i++) {
+				shownIndices[i] = from + i;
+			}
+		}
+		shownCount = count;
+
+		if (!canvasRendering) {
+			updateChartData();
+		}
+		fireInvalidated();
+	}
+
+	/**
+	 * Starts the reduction of a range in the background. The reduction reads a snapshot of the data set, which may be
+	 * changed in the meantime. The result is cached and shown, unless the reduction has been superseded by then. The
+	 * snapshot is released as soon as it is no longer read, so that later changes of the data set don't copy it.
+	 */
+	private void reduceInBackground(final ReducedRange range) {
+		final long requestGeneration = generation;
+		final SeriesReducer.Method method = reductionMethod;
+		final DataSeries snapshot = dataSeries.snapshot();
+		final AtomicBoolean snapshotClaim = new AtomicBoolean();
+		pendingSnapshot = snapshot;
+		pendingSnapshotClaim = snapshotClaim;
+		pendingReduction = REDUCTION_EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (!snapshotClaim.compareAndSet(false, true)) {
+					return;
+				}
+				final int[] result = requestGeneration == generation ? reduceSnapshot(range, method, snapshot,
+						requestGeneration) : null;
+
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						dataSeries.releaseSnapshot(snapshot);
+						if (result != null && requestGeneration == generation) {
+							pendingReduction = null;
+							pendingSnapshot = null;
+							pendingSnapshotClaim = null;
+							revision++;
+							reducedRanges.put(range, result);
+							shownCount = showIndices(result);
+							if (!canvasRendering) {
+								updateChartData();
+							}
+							fireInvalidated();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Reduces a range of a snapshot in the background.
+	 *
+	 * @return the reduced indices, or {@code null} if the reduction failed
+	 */
+	private int[] reduceSnapshot(final ReducedRange range, final SeriesReducer.Method method,
+			final DataSeries snapshot, final long requestGeneration) {
+		// the pyramid query may add one partial bucket at each end of the range
+		final int[] indices = new int[range.pointBudget + 8];
+		try {
+			return Arrays.copyOf(indices, reduce(range, method, snapshot, indices));
+		} catch (final RuntimeException e) {
+			// unless the data set was changed during the reduction, in which case a newer update follows
+			if (requestGeneration == generation) {
+				System.err.println(e.getMessage());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Reduces a range of the given series, which is the data set or a snapshot of it. Min/max reductions are answered
+	 * by the pyramid of the data set and must be done on the JavaFX application thread, the others only read the given
+	 * series.
+	 *
+	 * @return the number of indices
+	 */
+	private int reduce(final ReducedRange range, final SeriesReducer.Method method, final DataSeries series,
+			final int[] indices) {
+		if (method == SeriesReducer.Method.MIN_MAX) {
+			return pyramid.query(range.from, range.to, range.pointBudget / 4, indices);
+		}
+		return SeriesReducer.reduce(series, range.from, range.to, range.pointBudget, method, indices);
+	}
+
+	/**
+	 * Drops the reduction that is in progress, if there is one.
+	 */
+	private void supersedeReduction() {
+		generation++;
+		if (pendingReduction != null) {
+			pendingReduction.cancel(false);
+			// a reduction that has not started yet never reads its snapshot, one that has releases it when it is done
+			if (pendingSnapshotClaim.compareAndSet(false, true)) {
+				dataSeries.releaseSnapshot(pendingSnapshot);
+			}
+			pendingReduction = null;
+			pendingSnapshot = null;
+			pendingSnapshotClaim = null;
+		}
+	}
+
+	/**
+	 * Copies the given indices into the shown indices.
+	 *
+	 * @return the number of indices
+	 */
+	private int showIndices(final int[] indices) {
+		ensureShownCapacity(indices.length);
+		System.arraycopy(indices, 0, shownIndices, 0, indices.length);
+		return indices.length;
+	}
+
+	private void ensureShownCapacity(final int capacity) {
+		if (shownIndices.length < capacity) {
+			shownIndices = new int[capacity];
+		}
+	}
+
+	/**
+	 * Hands the shown points to the chart series. Existing chart data is reused, so the chart keeps its nodes.
+	 */
+	private void updateChartData() {
+		final ObservableList<Data<Number, Number>> chartData = chartSeries.getData();
+		final int kept = Math.min(chartData.size(), shownCount);
+		for (int i = 0; i < kept; i++) {
+			final int index = getSourceIndex(i);
+			final Data<Number, Number> data = chartData.get(i);
+			data.setXValue(dataSeries.getX(index));
+			data.setYValue(dataSeries.getY(index));
+		}
+		if (chartData.size() > shownCount) {
+			chartData.remove(shownCount, chartData.size());
+		} else if (shownCount > kept) {
+			final List<Data<Number, Number>> addedData = new ArrayList<>(shownCount - kept);
+			for (int i = kept; i < shownCount; i++) {
+				final int index = getSourceIndex(i);
+				addedData.add(new XYChart.Data<Number, Number>(dataSeries.getX(index), dataSeries.getY(index)));
+			}
+			chartData.addAll(addedData);
+		}
+	}
+
+	/**
+	 * Applies a change of the data set to the chart series. If the chart shows a reduced set of points, or will do so
+	 * after the change, the points are recomputed instead.
+	 */
+	private void applyChange(final ListChangeListener.Change<? extends DataItem> change) {
+		reducedRanges.clear();
+		revision++;
+		if (pendingReduction != null) {
+			supersedeReduction();
+			requestUpdate();
+		}
+		if (canvasRendering) {
+			// the canvas redraws everything anyway, so there is nothing to gain from applying the change in place
+			if (reduced || dataSeries.size() > computePointBudget() || cullsPoints()) {
+				requestUpdate();
+			} else {
+				reduced = false;
+				shownCount = dataSeries.size();
+				fireInvalidated();
+			}
+			return;
+		}
+		if (reduced || updatePending || dataSeries.size() > computePointBudget() || cullsPoints()) {
+			requestUpdate();
+			return;
+		}
+
+		final ObservableList<Data<Number, Number>> chartData = chartSeries.getData();
+		while (change.next()) {
+			final int from = change.getFrom();
+			if (change.wasPermutated() || change.wasUpdated()) {
+				updateData(chartData, from, change.getTo());
+			} else {
+				// replaced points keep their chart data, only the difference in size is added or removed
+				final int kept = Math.min(change.getAddedSize(), change.getRemovedSize());
+				updateData(chartData, from, from + kept);
+				if (change.getRemovedSize() > kept) {
+					chartData.remove(from + kept, from + change.getRemovedSize());
+				} else if (change.getAddedSize() > kept) {
+					chartData.addAll(from + kept, createData(from + kept, change.getTo()));
+				}
+			}
+		}
+		shownCount = chartData.size();
+		fireInvalidated();
+	}
+
+	/**
+	 * Points outside the bounds of the x axis are only left out if the bounds are fixed and the data set is sorted by
+	 * x, so that the shown points form an index range.
+	 */
+	private boolean isCullable() {
+		return !xAxis.isAutoRanging() && dataSeries.isSortedByX();
+	}
+
+	/**
+	 * @return the index of the first point shown for the bounds of the x axis, which includes the last point before
+	 *         the lower bound, so that the line enters the plot area
+	 */
+	private int findFirstCulled() {
+		return Math.max(dataSeries.lowerBound(xAxis.getLowerBound()) - 1, 0);
+	}
+
+	/**
+	 * @return the index after the last point shown for the bounds of the x axis, which includes the first point after
+	 *         the upper bound
+	 */
+	private int findEndCulled() {
+		return Math.min(dataSeries.upperBound(xAxis.getUpperBound()) + 1, dataSeries.size());
+	}
+
+	/**
+	 * Finds out whether the bounds of the x axis leave out points of the data set, e.g. after points were appended
+	 * beyond the upper bound. Such a change cannot be applied in place, since the shown points have to be culled.
+	 */
+	private boolean cullsPoints() {
+		return isCullable() && (findFirstCulled() > 0 || findEndCulled() < dataSeries.size());
+	}
+
+	private void updateData(final List<Data<Number, Number>> chartData, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			final Data<Number, Number> data = chartData.get(i);
+			data.setXValue(dataSeries.getX(i));
+			data.setYValue(dataSeries.getY(i));
+		}
+	}
+
+	private List<Data<Number, Number>> createData(final int from, final int to) {
+		final List<Data<Number, Number>> chartData = new ArrayList<>(to - from);
+		for (int i = from; i < to; i++) {
+			chartData.add(new XYChart.Data<Number, Number>(dataSeries.getX(i), dataSeries.getY(i)));
+		}
+		return chartData;
+	}
+
+	private void fireInvalidated() {
+		for (final InvalidationListener listener : new ArrayList<>(listeners)) {
+			listener.invalidated(this);
+		}
+	}
+
+	private int computePointBudget() {
+		final double width = xAxis.getWidth() > 0 ? xAxis.getWidth() : DEFAULT_PLOT_WIDTH;
+		return (int) Math.ceil(width) * POINTS_PER_PIXEL;
+	}
+
+	/**
+	 * An index range of the data set that was reduced for a given point budget.
+	 */
+	private static final class ReducedRange {
+
+		private final int from;
+		private final int to;
+		private final int pointBudget;
+
+		private ReducedRange(final int from, final int to, final int pointBudget) {
+			this.from = from;
+			this.to = to;
+			this.pointBudget = pointBudget;
+		}
+
+		@Override
+		public boolean equals(final Object object) {
+			if (!(object instanceof ReducedRange)) {
+				return false;
+			}
+			final ReducedRange other = (ReducedRange) object;
+			return from == other.from && to == other.to && pointBudget == other.pointBudget;
+		}
+
+		@Override
+		public int hashCode() {
+			return (from * 31 + to) * 31 + pointBudget;
+		}
+	}
+}
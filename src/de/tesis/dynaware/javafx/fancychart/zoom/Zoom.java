@@ -7,6 +7,9 @@
  */
 package de.tesis.dynaware.javafx.fancychart.zoom;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 import javafx.event.EventHandler;
 import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
@@ -17,6 +20,7 @@ import javafx.scene.control.Label;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 
@@ -24,10 +28,44 @@ import javafx.scene.layout.StackPane;
  * This class adds a zoom functionality to a given XY chart. Zoom means that a user can select a region in the chart
  * that should be displayed at a larger scale.
  *
+ * <p>
+ * The mouse wheel zooms in and out around the point under the cursor. Every zoom is recorded in a history, which can be
+ * walked back with BACKSPACE or ALT+LEFT and forward again with ALT+RIGHT. The wheel steps of a single scroll gesture
+ * are recorded as one zoom.
+ * </p>
+ *
+ * <p>
+ * Dragging with the middle mouse button, or with the left one while CTRL is held down, pans the chart, and so do the
+ * arrow keys. Pans are recorded in the history as well. The axes are always moved by whole pixels, so that a canvas
+ * can move its drawn image instead of drawing everything again.
+ * </p>
  */
 public class Zoom {
 
 	private static final String INFO_LABEL_ID = "zoomInfoLabel";
+
+	/**
+	 * The factor by which one step of the mouse wheel scales the axis ranges.
+	 */
+	private static final double WHEEL_ZOOM_FACTOR = 0.8;
+
+	/**
+	 * The scroll delta of one step of the mouse wheel.
+	 */
+	private static final double WHEEL_STEP_DELTA = 40;
+
+	/**
+	 * Wheel steps or arrow key presses that follow each other within this time belong to the same entry in the history.
+	 */
+	private static final long GESTURE_TIMEOUT = 500_000_000L;
+
+	/**
+	 * The fraction of the plot area by which one press of an arrow key pans the chart.
+	 */
+	private static final double KEY_PAN_FRACTION = 0.1;
+
+	private static final int MAX_HISTORY_SIZE = 50;
+
 	private final Pane pane;
 	private final XYChart<Number, Number> chart;
 	private final NumberAxis xAxis;
@@ -38,6 +76,15 @@ public class Zoom {
 	private Point2D selectionRectangleStart;
 	private Point2D selectionRectangleEnd;
 
+	private final Deque<Viewport> backHistory = new ArrayDeque<>();
+	private final Deque<Viewport> forwardHistory = new ArrayDeque<>();
+	private long lastWheelTime;
+	private long lastKeyPanTime;
+
+	private Point2D panPosition;
+	// a pan is recorded in the history once it has moved the axes
+	private boolean panRecorded;
+
 	/**
 	 * Create a new instance of this class with the given chart and pane instances. The {@link Pane} instance is needed
 	 * as a parent for the rectangle that represents the user selection.
@@ -58,11 +105,83 @@ public class Zoom {
 		addInfoLabel();
 	}
 
+	/**
+	 * Goes back to the axis bounds before the last zoom, if there was one.
+	 */
+	public void zoomBack() {
+		if (!backHistory.isEmpty()) {
+			forwardHistory.push(new Viewport());
+			backHistory.pop().apply();
+		}
+	}
+
+	/**
+	 * Redoes the last zoom that was undone by {@link #zoomBack()}, if there is one.
+	 */
+	public void zoomForward() {
+		if (!forwardHistory.isEmpty()) {
+			backHistory.push(new Viewport());
+			forwardHistory.pop().apply();
+		}
+	}
+
+	/**
+	 * Records the current axis bounds in the history, before they are changed by a zoom.
+	 */
+	private void recordViewport() {
+		backHistory.push(new Viewport());
+		if (backHistory.size() > MAX_HISTORY_SIZE) {
+			backHistory.removeLast();
+		}
+		forwardHistory.clear();
+		lastWheelTime = 0;
+		lastKeyPanTime = 0;
+	}
+
+	/**
+	 * Moves the axes by the given number of pixels, so that the content of the chart follows the mouse.
+	 *
+	 * @param deltaX
+	 *            the number of pixels to move the content to the right
+	 * @param deltaY
+	 *            the number of pixels to move the content down
+	 */
+	private void pan(double deltaX, double deltaY) {
+		disableAutoRanging();
+		shiftBounds(xAxis, -deltaX * computeValuesPerPixel(xAxis, xAxis.getWidth()));
+		shiftBounds(yAxis, deltaY * computeValuesPerPixel(yAxis, yAxis.getHeight()));
+		showInfo();
+	}
+
+	private static double computeValuesPerPixel(NumberAxis axis, double length) {
+		return length > 0 ? (axis.getUpperBound() - axis.getLowerBound()) / length : 0;
+	}
+
+	private static void shiftBounds(NumberAxis axis, double delta) {
+		if (delta != 0) {
+			axis.setLowerBound(axis.getLowerBound() + delta);
+			axis.setUpperBound(axis.getUpperBound() + delta);
+		}
+	}
+
+	private void disableAutoRanging() {
+		xAxis.setAutoRanging(false);
+		yAxis.setAutoRanging(false);
+	}
+
+	private void showInfo() {
+		infoLabel.setVisible(true);
+	}
+
+	private void hideInfo() {
+		infoLabel.setVisible(false);
+	}
+
 	/**
 	 * The info label shows a short info text that tells the user how to unreset the zoom level.
 	 */
 	private void addInfoLabel() {
-		infoLabel = new Label("Click ESC to reset the zoom level.");
+		infoLabel = new Label("Click ESC to reset the zoom level, BACKSPACE to go back.");
 		infoLabel.setId(INFO_LABEL_ID);
 		pane.getChildren().add(infoLabel);
 		StackPane.setAlignment(infoLabel, Pos.TOP_RIGHT);
@@ -76,7 +195,9 @@ public class Zoom {
 		pane.addEventHandler(MouseEvent.MOUSE_PRESSED, new MousePressedHandler());
 		pane.addEventHandler(MouseEvent.MOUSE_DRAGGED, new MouseDraggedHandler());
 		pane.addEventHandler(MouseEvent.MOUSE_RELEASED, new MouseReleasedHandler());
-		pane.addEventHandler(KeyEvent.KEY_RELEASED, new EscapeKeyHandler());
+		pane.addEventHandler(ScrollEvent.SCROLL, new ScrollHandler());
+		pane.addEventHandler(KeyEvent.KEY_RELEASED, new ZoomKeyHandler());
+		pane.addEventHandler(KeyEvent.KEY_PRESSED, new PanKeyHandler());
 	}
 
 	private Point2D computeRectanglePoint(double eventX, double eventY) {
@@ -125,6 +246,15 @@ public class Zoom {
 				return;
 			}
 
+			// the middle button or CTRL starts a pan instead of a selection
+			if (event.isMiddleButtonDown() || event.isControlDown()) {
+				panPosition = new Point2D(event.getX(), event.getY());
+				panRecorded = false;
+				pane.requestFocus();
+				event.consume();
+				return;
+			}
+
 			// store position of initial click
 			selectionRectangleStart = computeRectanglePoint(event.getX(), event.getY());
 			event.consume();
@@ -143,6 +273,22 @@ public class Zoom {
 				return;
 			}
 
+			if (panPosition != null) {
+				// only whole pixels are panned, the rest is left for the next drag event
+				double deltaX = Math.rint(event.getX() - panPosition.getX());
+				double deltaY = Math.rint(event.getY() - panPosition.getY());
+				if (deltaX != 0 || deltaY != 0) {
+					if (!panRecorded) {
+						recordViewport();
+						panRecorded = true;
+					}
+					pan(deltaX, deltaY);
+					panPosition = panPosition.add(deltaX, deltaY);
+				}
+				event.consume();
+				return;
+			}
+
 			// store current cursor position
 			selectionRectangleEnd = computeRectanglePoint(event.getX(), event.getY());
 
@@ -195,6 +341,12 @@ public class Zoom {
 
 		@Override
 		public void handle(final MouseEvent event) {
+			if (panPosition != null) {
+				panPosition = null;
+				event.consume();
+				return;
+			}
+
 			hideSelectionRectangle();
 
 			if (selectionRectangleStart == null || selectionRectangleEnd == null) {
@@ -205,6 +357,7 @@ public class Zoom {
 				return;
 			}
 
+			recordViewport();
 			setAxisBounds();
 			showInfo();
 			selectionRectangleStart = null;
@@ -241,15 +394,6 @@ public class Zoom {
 			setVerticalBounds(selectionMinY, selectionMaxY);
 		}
 
-		private void disableAutoRanging() {
-			xAxis.setAutoRanging(false);
-			yAxis.setAutoRanging(false);
-		}
-
-		private void showInfo() {
-			infoLabel.setVisible(true);
-		}
-
 		/**
 		 * Sets new bounds for the chart's x axis.
 		 * 
@@ -335,16 +479,64 @@ public class Zoom {
 	}
 
 	/**
-	 *
+	 * Zooms in or out around the point under the cursor when the mouse wheel is turned.
 	 */
-	private final class EscapeKeyHandler implements EventHandler<KeyEvent> {
+	private final class ScrollHandler implements EventHandler<ScrollEvent> {
+		@Override
+		public void handle(final ScrollEvent event) {
+			if (event.getDeltaY() == 0) {
+				return;
+			}
+
+			final long now = System.nanoTime();
+			if (now - lastWheelTime > GESTURE_TIMEOUT) {
+				recordViewport();
+			}
+			lastWheelTime = now;
+
+			disableAutoRanging();
+			final double factor = Math.pow(WHEEL_ZOOM_FACTOR, event.getDeltaY() / WHEEL_STEP_DELTA);
+			scaleAround(xAxis, event.getX() - computeOffsetInChart(xAxis, false), factor);
+			scaleAround(yAxis, event.getY() - computeOffsetInChart(yAxis, true), factor);
+			showInfo();
+
+			// needed for the key event handler to receive events
+			pane.requestFocus();
+			event.consume();
+		}
+
+		/**
+		 * Scales the range of an axis so that the value at the given position stays where it is.
+		 */
+		private void scaleAround(final NumberAxis axis, final double displayPosition, final double factor) {
+			final double lowerBound = axis.getLowerBound();
+			final double upperBound = axis.getUpperBound();
+			final double value = axis.getValueForDisplay(displayPosition).doubleValue();
+			final double anchor = Math.max(lowerBound, Math.min(value, upperBound));
+			axis.setLowerBound(anchor - (anchor - lowerBound) * factor);
+			axis.setUpperBound(anchor + (upperBound - anchor) * factor);
+		}
+	}
+
+	/**
+	 * Resets the zoom level with ESC, and walks through the zoom history with BACKSPACE, ALT+LEFT and ALT+RIGHT.
+	 */
+	private final class ZoomKeyHandler implements EventHandler<KeyEvent> {
 		@Override
 		public void handle(KeyEvent event) {
 
 			// the ESCAPE key lets the user reset the zoom level
 			if (KeyCode.ESCAPE.equals(event.getCode())) {
+				if (!xAxis.isAutoRanging() || !yAxis.isAutoRanging()) {
+					recordViewport();
+				}
 				resetAxisBounds();
 				hideInfo();
+			} else if (KeyCode.BACK_SPACE.equals(event.getCode())
+					|| KeyCode.LEFT.equals(event.getCode()) && event.isAltDown()) {
+				zoomBack();
+			} else if (KeyCode.RIGHT.equals(event.getCode()) && event.isAltDown()) {
+				zoomForward();
 			}
 		}
 
@@ -352,9 +544,90 @@ public class Zoom {
 			xAxis.setAutoRanging(true);
 			yAxis.setAutoRanging(true);
 		}
+	}
 
-		private void hideInfo() {
-			infoLabel.setVisible(false);
+	/**
+	 * Pans the chart by a tenth of the plot area when an arrow key is pressed. The presses of an arrow key that is held
+	 * down are recorded as one pan.
+	 */
+	private final class PanKeyHandler implements EventHandler<KeyEvent> {
+		@Override
+		public void handle(KeyEvent event) {
+
+			// ALT+LEFT and ALT+RIGHT walk through the history instead
+			if (event.isAltDown() || !event.getCode().isArrowKey()) {
+				return;
+			}
+
+			final long now = System.nanoTime();
+			if (now - lastKeyPanTime > GESTURE_TIMEOUT) {
+				recordViewport();
+			}
+			lastKeyPanTime = now;
+
+			double stepX = Math.rint(xAxis.getWidth() * KEY_PAN_FRACTION);
+			double stepY = Math.rint(yAxis.getHeight() * KEY_PAN_FRACTION);
+			switch (event.getCode()) {
+			case LEFT:
+			case KP_LEFT:
+				pan(stepX, 0);
+				break;
+			case RIGHT:
+			case KP_RIGHT:
+				pan(-stepX, 0);
+				break;
+			case UP:
+			case KP_UP:
+				pan(0, stepY);
+				break;
+			default:
+				pan(0, -stepY);
+				break;
+			}
+
+			// keeps the arrow keys from moving the focus
+			event.consume();
+		}
+	}
+
+	/**
+	 * The bounds of both axes at one point of the zoom history.
+	 */
+	private final class Viewport {
+
+		private final boolean autoRanging;
+		private final double lowerBoundX;
+		private final double upperBoundX;
+		private final double lowerBoundY;
+		private final double upperBoundY;
+
+		/**
+		 * Captures the current bounds of the axes.
+		 */
+		private Viewport() {
+			autoRanging = xAxis.isAutoRanging() && yAxis.isAutoRanging();
+			lowerBoundX = xAxis.getLowerBound();
+			upperBoundX = xAxis.getUpperBound();
+			lowerBoundY = yAxis.getLowerBound();
+			upperBoundY = yAxis.getUpperBound();
+		}
+
+		/**
+		 * Sets the axes back to these bounds.
+		 */
+		private void apply() {
+			if (autoRanging) {
+				xAxis.setAutoRanging(true);
+				yAxis.setAutoRanging(true);
+				hideInfo();
+			} else {
+				disableAutoRanging();
+				xAxis.setLowerBound(lowerBoundX);
+				xAxis.setUpperBound(upperBoundX);
+				yAxis.setLowerBound(lowerBoundY);
+				yAxis.setUpperBound(upperBoundY);
+				showInfo();
+			}
 		}
 	}
 
@@ -17,6 +17,12 @@ import javafx.stage.Stage;
 
 public class FancyChartViewer extends Application {
 
+	/**
+	 * Start the viewer with {@code --rendering=canvas} to draw the chart series onto a canvas.
+	 */
+	private static final String RENDERING_PARAMETER = "rendering";
+	private static final String CANVAS_RENDERING = "canvas";
+
 	public static void main(final String[] args) {
 		launch(args);
 	}
@@ -30,6 +36,9 @@ public class FancyChartViewer extends Application {
 		loader.setLocation(location);
 		final Parent root = (Parent) loader.load(location.openStream());
 
+		final FancyChartController controller = loader.getController();
+		controller.setCanvasRendering(CANVAS_RENDERING.equals(getParameters().getNamed().get(RENDERING_PARAMETER)));
+
 		final Scene scene = new Scene(root, 1400, 800);
 
 		final String fancyChartCss = "css/fancychart.css";